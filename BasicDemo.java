@@ -18,6 +18,8 @@ import java.util.*;
 
 import com.jkovacic.cli.*;
 import com.jkovacic.cryptoutil.*;
+// explicitly imported as java.util also contains a Base64 class (since Java 8)
+import com.jkovacic.cryptoutil.Base64;
 import com.jkovacic.ssh2.*;
 import com.jkovacic.rclient.*;
 
@@ -0,0 +1,177 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jkovacic.cli.*;
+
+
+/*
+ * Benchmark of local command execution: a new process per command
+ * (CliLocal) versus a pool of pre-started shells (CliLocalShellPool).
+ * 
+ * Usage:
+ *   java LocalBenchmark [commands] [threads] [shells]
+ * 
+ * e.g. java LocalBenchmark 2000 8 4
+ * 
+ * 'commands' trivial commands ("echo hello") are executed by 'threads' threads
+ * via each path. Latencies of single commands and the overall throughput 
+ * (commands per second) are reported. The pool's shells interpret a command
+ * without starting a process, so it should be several times faster.
+ * 
+ * As with BasicDemo, the results are merely printed.
+ */
+public class LocalBenchmark 
+{
+	// number of warm-up commands per thread, excluded from results
+	private static final int WARMUP = 20;
+	
+	private static final String COMMAND = "echo hello";
+	
+	// Prints a summary of measured durations (in nanoseconds) and the throughput
+	private static void report(String what, long[] samples, long elapsed)
+	{
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		
+		System.out.printf("%-30s n=%d  min=%.3f  median=%.3f  p90=%.3f  p99=%.3f  max=%.3f ms  %.0f commands/s%n", 
+				what, sorted.length, 
+				ms(sorted[0]), 
+				ms(sorted[sorted.length/2]), 
+				ms(sorted[(int) (sorted.length*0.9)]), 
+				ms(sorted[(int) (sorted.length*0.99)]), 
+				ms(sorted[sorted.length-1]),
+				sorted.length / (elapsed / 1e9));
+	}
+	
+	// Converts nanoseconds into milliseconds
+	private static double ms(long nanos)
+	{
+		return nanos / 1e6;
+	}
+	
+	// Executes 'commands' commands by 'threads' threads, reports their latencies
+	private static void run(String what, final IExec exec, int commands, int threads) throws Exception
+	{
+		final long[] samples = new long[commands];
+		final int perThread = commands / threads;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		
+		try
+		{
+			List<Future<Void>> pending = new ArrayList<Future<Void>>();
+			final CountDownLatch ready = new CountDownLatch(threads);
+			final CountDownLatch go = new CountDownLatch(1);
+			
+			for ( int t=0; t<threads; t++ )
+			{
+				final int first = t * perThread;
+				// the last thread also executes the remainder
+				final int last = ( t==threads-1 ? commands : first+perThread );
+				
+				pending.add(pool.submit(new Callable<Void>()
+						{
+							public Void call() throws Exception
+							{
+								for ( int i=0; i<WARMUP; i++ )
+								{
+									check(exec.exec(COMMAND));
+								}
+								
+								ready.countDown();
+								go.await();
+								
+								for ( int i=first; i<last; i++ )
+								{
+									long start = System.nanoTime();
+									check(exec.exec(COMMAND));
+									samples[i] = System.nanoTime() - start;
+								}
+								
+								return null;
+							}
+						}));
+			}
+			
+			ready.await();
+			long start = System.nanoTime();
+			go.countDown();
+			
+			for ( Future<Void> f : pending )
+			{
+				f.get();
+			}
+			
+			report(what, samples, System.nanoTime() - start);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	// Verifies the command's output, so a failing path is not mistaken for a fast one
+	private static void check(CliOutput out) throws CliException
+	{
+		String[] lines = out.getOut();
+		
+		if ( null==lines || 1!=lines.length || false=="hello".equals(lines[0]) )
+		{
+			throw new CliException("Unexpected output");
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		try
+		{
+			int commands = ( args.length>0 ? Integer.parseInt(args[0]) : 1000 );
+			int threads = ( args.length>1 ? Integer.parseInt(args[1]) : 4 );
+			int shells = ( args.length>2 ? Integer.parseInt(args[2]) : CliLocalShellPool.DEFAULT_SIZE );
+			
+			if ( commands<1 || threads<1 || threads>commands )
+			{
+				System.err.println("Usage: java LocalBenchmark [commands] [threads] [shells]");
+				System.exit(2);
+			}
+			
+			CliLocal local = CliFactory.getLocal();
+			local.prepare();
+			run("spawn per command", local, commands, threads);
+			
+			CliLocalShellPool shellPool = CliFactory.getLocalShellPool(shells);
+			shellPool.prepare();
+			
+			try
+			{
+				run("pool of " + shells + " shells", shellPool, commands, threads);
+			}
+			finally
+			{
+				shellPool.cleanup();
+			}
+		}
+		catch ( Exception ex )
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,433 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+
+import java.lang.management.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jkovacic.cli.*;
+import com.jkovacic.ssh2.*;
+
+
+/*
+ * Benchmarks of SSH implementations against a real SSH server.
+ * 
+ * Usage:
+ *   java SshBenchmark <test> <provider> <host[:port]> <user> <password> <MD5 host key finger print> <host key algorithm> [iterations]
+ * 
+ * e.g. java SshBenchmark exec jsch myhost me secret 22:66:02:...:30:18 RSA 200
+ * 
+ * Tests:
+ *   exec  - latency of a trivial command ("true") over an established session.
+ *           Until exec channels' closure was polled with an exponential backoff,
+ *           JSch polled it every 100 ms, so the median latency was dominated by
+ *           the polling interval. For JSch, the test is run with the current
+ *           polling (1 ms, doubled up to 64 ms) and with the former fixed 100 ms
+ *           interval as a baseline. Compare with Ganymed (which is notified when
+ *           the channel closes) to see the remaining polling overhead.
+ *   drain - threads and latency of concurrently executing commands, and throughput
+ *           of a large output. Ganymed drains each channel by a single task on
+ *           a bounded pool (instead of two new threads per command), and buffers
+ *           at most 1 MiB per stream, so the peak thread count should not grow 
+ *           with the number of commands and the throughput should not suffer.
+ *   footprint - heap and threads per established session, measured by opening
+ *           'iterations' sessions. As all SshJsch instances share one JSch 
+ *           context, a JSch session should only add its reader thread and
+ *           its channel buffers.
+ *   ciphers - connect latency (key exchange and authentication) and stdout throughput
+ *           for each cipher, supported by the provider and the server. AEAD ciphers
+ *           (chacha20-poly1305, AES-GCM) need no separate HMAC, so they should
+ *           outperform CBC/CTR ciphers combined with an HMAC.
+ * 
+ * As with BasicDemo, the results are merely printed.
+ */
+public class SshBenchmark 
+{
+	// number of warm-up iterations, excluded from results
+	private static final int WARMUP = 5;
+	
+	// Prints a summary of measured durations (in nanoseconds)
+	private static void report(String what, long[] samples)
+	{
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		
+		System.out.printf("%-40s n=%d  min=%.2f  median=%.2f  p90=%.2f  p99=%.2f  max=%.2f ms%n", 
+				what, sorted.length, 
+				ms(sorted[0]), 
+				ms(sorted[sorted.length/2]), 
+				ms(sorted[(int) (sorted.length*0.9)]), 
+				ms(sorted[(int) (sorted.length*0.99)]), 
+				ms(sorted[sorted.length-1]));
+	}
+	
+	// Converts nanoseconds into milliseconds
+	private static double ms(long nanos)
+	{
+		return nanos / 1e6;
+	}
+	
+	// All algorithms, known to the library, in their declared order
+	private static EncryptionAlgorithms allAlgorithms()
+	{
+		EncryptionAlgorithms retVal = new EncryptionAlgorithms();
+		
+		for ( KexAlgs alg : KexAlgs.values() )
+		{
+			retVal.appendKex(alg);
+		}
+		
+		for ( Ciphers alg : Ciphers.values() )
+		{
+			retVal.appendCipher(alg);
+		}
+		
+		for ( Hmacs alg : Hmacs.values() )
+		{
+			retVal.appendHmac(alg);
+		}
+		
+		retVal.appendComp(CompAlgs.NONE);
+		
+		return retVal;
+	}
+	
+	// All key exchange and HMAC algorithms, only the given cipher
+	private static EncryptionAlgorithms withCipher(Ciphers cipher)
+	{
+		EncryptionAlgorithms retVal = new EncryptionAlgorithms();
+		
+		for ( KexAlgs alg : KexAlgs.values() )
+		{
+			retVal.appendKex(alg);
+		}
+		
+		retVal.appendCipher(cipher);
+		
+		for ( Hmacs alg : Hmacs.values() )
+		{
+			retVal.appendHmac(alg);
+		}
+		
+		retVal.appendComp(CompAlgs.NONE);
+		
+		return retVal;
+	}
+	
+	// A channel that discards everything written into it
+	private static WritableByteChannel discardChannel()
+	{
+		return new WritableByteChannel()
+			{
+				public int write(ByteBuffer src)
+				{
+					int n = src.remaining();
+					src.position(src.limit());
+					return n;
+				}
+				
+				public boolean isOpen()
+				{
+					return true;
+				}
+				
+				public void close()
+				{
+				}
+			};
+	}
+	
+	// Latency of a trivial command, for JSch with the current and the former (fixed) polling of channels' closure
+	private static void execLatency(String provider, HostId host, UserCredentials user, int iterations) throws Exception
+	{
+		if ( false == SshJschProvider.NAME.equalsIgnoreCase(provider) )
+		{
+			execLatency(provider, provider, host, user, iterations);
+			return;
+		}
+		
+		long min = SshJsch.getMinClosePoll();
+		long max = SshJsch.getMaxClosePoll();
+		
+		try
+		{
+			execLatency(provider + " (poll " + min + ".." + max + " ms)", provider, host, user, iterations);
+			
+			SshJsch.setClosePolling(100L, 100L);
+			execLatency(provider + " (poll 100 ms, baseline)", provider, host, user, iterations);
+		}
+		finally
+		{
+			SshJsch.setClosePolling(min, max);
+		}
+	}
+	
+	// Latency of a trivial command over an established session
+	private static void execLatency(String label, String provider, HostId host, UserCredentials user, int iterations) throws Exception
+	{
+		IExec ssh = CliFactory.getSsh(provider, host, user, allAlgorithms());
+		long[] samples = new long[iterations];
+		
+		ssh.prepare();
+		
+		try
+		{
+			for ( int i=0; i<WARMUP; i++ )
+			{
+				ssh.exec("true");
+			}
+			
+			for ( int i=0; i<iterations; i++ )
+			{
+				long start = System.nanoTime();
+				ssh.exec("true");
+				samples[i] = System.nanoTime() - start;
+			}
+		}
+		finally
+		{
+			ssh.cleanup();
+		}
+		
+		report(label + ": exec 'true'", samples);
+	}
+	
+	// Threads and latency of concurrent commands, throughput of a large output
+	private static void drain(String provider, HostId host, UserCredentials user, int iterations) throws Exception
+	{
+		// OpenSSH allows 10 channels per connection by default
+		final int concurrency = 8;
+		final long outputSize = 256L << 20;
+		
+		IExec ssh = CliFactory.getSsh(provider, host, user, allAlgorithms());
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long[] samples = new long[iterations * concurrency];
+		
+		ssh.prepare();
+		
+		try
+		{
+			for ( int i=0; i<WARMUP; i++ )
+			{
+				ssh.exec("true");
+			}
+			
+			int baseThreads = threads.getThreadCount();
+			threads.resetPeakThreadCount();
+			
+			for ( int i=0; i<iterations; i++ )
+			{
+				List<CompletableFuture<CliOutput>> pending = new ArrayList<CompletableFuture<CliOutput>>();
+				long start = System.nanoTime();
+				
+				for ( int j=0; j<concurrency; j++ )
+				{
+					pending.add(ssh.execAsync("sleep 0.1; echo done"));
+				}
+				
+				for ( int j=0; j<concurrency; j++ )
+				{
+					pending.get(j).get();
+					samples[i*concurrency + j] = System.nanoTime() - start;
+				}
+			}
+			
+			report(provider + ": " + concurrency + " concurrent 'sleep 0.1'", samples);
+			System.out.printf("%-40s base=%d  peak=%d%n", provider + ": threads", baseThreads, threads.getPeakThreadCount());
+			
+			// the output is discarded, only the transfer is measured
+			CliTransferOutput out = ssh.execToChannel("head -c " + outputSize + " /dev/zero", discardChannel());
+			
+			System.out.printf("%-40s %d bytes  %.1f MB/s%n", provider + ": stdout throughput", 
+					out.getBytes(), out.getBytesPerSecond() / 1e6);
+		}
+		finally
+		{
+			ssh.cleanup();
+		}
+	}
+	
+	// Currently used heap (in bytes), measured after garbage collection
+	private static long usedHeap()
+	{
+		Runtime rt = Runtime.getRuntime();
+		
+		for ( int i=0; i<3; i++ )
+		{
+			System.gc();
+		}
+		
+		return rt.totalMemory() - rt.freeMemory();
+	}
+	
+	// Heap and threads per established session
+	private static void footprint(String provider, HostId host, UserCredentials user, int iterations) throws Exception
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		List<IExec> sessions = new ArrayList<IExec>(iterations);
+		
+		// the library is loaded and initialized by a session that is not measured
+		IExec warmup = CliFactory.getSsh(provider, host, user, allAlgorithms());
+		warmup.prepare();
+		warmup.exec("true");
+		
+		int baseThreads = threads.getThreadCount();
+		long baseHeap = usedHeap();
+		
+		try
+		{
+			for ( int i=0; i<iterations; i++ )
+			{
+				IExec ssh = CliFactory.getSsh(provider, host, user, allAlgorithms());
+				ssh.prepare();
+				sessions.add(ssh);
+				ssh.exec("true");
+			}
+			
+			int deltaThreads = threads.getThreadCount() - baseThreads;
+			long deltaHeap = usedHeap() - baseHeap;
+			
+			System.out.printf("%-40s sessions=%d  threads/session=%.2f  heap/session=%.1f KiB%n", 
+					provider + ": footprint", iterations, 
+					(double) deltaThreads / iterations, deltaHeap / 1024.0 / iterations);
+		}
+		finally
+		{
+			for ( IExec ssh : sessions )
+			{
+				ssh.cleanup();
+			}
+			
+			warmup.cleanup();
+		}
+	}
+	
+	// Connect latency and throughput per cipher
+	private static void ciphers(String provider, HostId host, UserCredentials user, int iterations) throws Exception
+	{
+		final long outputSize = 128L << 20;
+		
+		for ( Ciphers cipher : Ciphers.values() )
+		{
+			long[] samples = new long[iterations];
+			IExec ssh = null;
+			
+			try
+			{
+				for ( int i=0; i<iterations; i++ )
+				{
+					ssh = CliFactory.getSsh(provider, host, user, withCipher(cipher));
+					
+					long start = System.nanoTime();
+					ssh.prepare();
+					samples[i] = System.nanoTime() - start;
+					
+					if ( i < iterations-1 )
+					{
+						ssh.cleanup();
+						ssh = null;
+					}
+				}
+				
+				report(provider + ": connect " + cipher.getValue(), samples);
+				
+				CliTransferOutput out = ssh.execToChannel("head -c " + outputSize + " /dev/zero", discardChannel());
+				System.out.printf("%-40s %d bytes  %.1f MB/s%n", provider + ": throughput " + cipher.getValue(), 
+						out.getBytes(), out.getBytesPerSecond() / 1e6);
+			}
+			catch ( CliException ex )
+			{
+				// not supported by the provider or the server
+				System.out.printf("%-40s %s%n", provider + ": " + cipher.getValue(), ex.getMessage());
+			}
+			finally
+			{
+				if ( null != ssh )
+				{
+					try
+					{
+						ssh.cleanup();
+					}
+					catch ( CliException ex )
+					{
+						// the session may not have been established
+					}
+				}
+			}
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		if ( args.length < 7 )
+		{
+			System.err.println("Usage: java SshBenchmark <test> <provider> <host[:port]> <user> <password> <MD5 host key finger print> <host key algorithm> [iterations]");
+			System.exit(2);
+		}
+		
+		try
+		{
+			String test = args[0];
+			String provider = args[1];
+			int iterations = ( args.length>7 ? Integer.parseInt(args[7]) : 100 );
+			
+			HostId host = new HostId(args[2]);
+			
+			// a port may be appended to a host name or an IPv4 address
+			int colon = args[2].indexOf(':');
+			if ( colon>0 && colon==args[2].lastIndexOf(':') )
+			{
+				host.hostname = args[2].substring(0, colon);
+				host.port = Integer.parseInt(args[2].substring(colon+1));
+			}
+			host.insertHostkey(new Hostkey(PKAlgs.valueOf(args[6]), args[5].getBytes(), Hostkey.HostkeyType.MD5));
+			
+			UserCredentialsPassword user = new UserCredentialsPassword();
+			user.setUsername(args[3]);
+			user.setSecret(args[4].toCharArray());
+			
+			if ( "exec".equals(test) )
+			{
+				execLatency(provider, host, user, iterations);
+			}
+			else if ( "drain".equals(test) )
+			{
+				drain(provider, host, user, iterations);
+			}
+			else if ( "footprint".equals(test) )
+			{
+				footprint(provider, host, user, iterations);
+			}
+			else if ( "ciphers".equals(test) )
+			{
+				ciphers(provider, host, user, iterations);
+			}
+			else
+			{
+				System.err.println("Unknown test: " + test);
+				System.exit(2);
+			}
+		}
+		catch ( Exception ex )
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jkovacic.cli.*;
+
+
+/*
+ * A stress test of concurrent draining of stdout and stderr. Local commands
+ * write several megabytes to both streams in interleaved bursts, each burst
+ * larger than a pipe's buffer, so a processor that neglected either stream
+ * would hang. Several commands are run simultaneously with a small drainer
+ * pool, so transient draining threads are exercised as well.
+ * 
+ * Requires a POSIX shell and awk. Exits with a non-zero code on failure.
+ */
+public class StreamStressTest 
+{
+	// lines per stream and command
+	private static final int LINES = 50000;
+	// lines per burst (about 100 kB, more than a pipe's buffer)
+	private static final int BURST = 1000;
+	// number of simultaneously executed commands
+	private static final int PARALLEL = 8;
+	// how long a single command may run
+	private static final long TIMEOUT = 60L;
+	
+	// awk script, writing interleaved bursts of numbered lines to stdout and stderr
+	private static final String SCRIPT = 
+			"awk 'BEGIN { pad = sprintf(\"%080d\", 0); " +
+			"for ( i=0; i<" + LINES + "; i+=" + BURST + " ) { " +
+			"for ( j=i; j<i+" + BURST + "; j++ ) print \"out \" j \" \" pad; fflush(); " +
+			"for ( j=i; j<i+" + BURST + "; j++ ) print \"err \" j \" \" pad > \"/dev/stderr\"; fflush(\"/dev/stderr\"); } }'";
+	
+	// check that the lines are complete and in order
+	private static void verify(String[] lines, String prefix) throws Exception
+	{
+		if ( null==lines || LINES!=lines.length )
+		{
+			throw new Exception(prefix + ": expected " + LINES + " lines, got " + ( null==lines ? 0 : lines.length ));
+		}
+		
+		for ( int i=0; i<LINES; i++ )
+		{
+			if ( false == lines[i].startsWith(prefix + " " + i + " ") )
+			{
+				throw new Exception(prefix + ": unexpected line " + i + ": " + lines[i]);
+			}
+		}
+	}
+	
+	private static CliOutput run(CliLocal local, String script) throws Exception
+	{
+		return local.exec(new CliNonInteractive(), new CliLocalCommand("/bin/sh", "-c", script), new CliExecHandle(TIMEOUT, TimeUnit.SECONDS));
+	}
+	
+	public static void main(String[] args) 
+	{
+		try
+		{
+			final CliLocal local = CliFactory.getLocal();
+			
+			// fewer pooled threads than simultaneous commands
+			CliAsync.setMaxDrainerThreads(2);
+			
+			long start = System.nanoTime();
+			List<Future<CliOutput>> pending = new ArrayList<Future<CliOutput>>();
+			ExecutorService callers = Executors.newFixedThreadPool(PARALLEL);
+			
+			for ( int i=0; i<PARALLEL; i++ )
+			{
+				pending.add(callers.submit(new Callable<CliOutput>()
+						{
+							public CliOutput call() throws Exception
+							{
+								return run(local, SCRIPT);
+							}
+						}));
+			}
+			
+			for ( Future<CliOutput> f : pending )
+			{
+				CliOutput out = f.get();
+				verify(out.getOut(), "out");
+				verify(out.getErr(), "err");
+			}
+			
+			callers.shutdown();
+			
+			long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			System.out.println(PARALLEL + " commands, " + (2L*PARALLEL*LINES) + " lines drained in " + ms + " ms");
+			
+			// output, consisting of blank lines only, yields an empty array
+			CliOutput blank = run(local, "printf '\\n\\n\\n'");
+			if ( null==blank.getOut() || 0!=blank.getOut().length )
+			{
+				throw new Exception("Blank lines not returned as an empty array");
+			}
+			
+			// no output at all yields null
+			CliOutput none = run(local, "true");
+			if ( null!=none.getOut() || null!=none.getErr() )
+			{
+				throw new Exception("No output not returned as null");
+			}
+			
+			System.out.println("OK");
+		}
+		catch ( Exception ex )
+		{
+			System.err.println("FAILED: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -16,6 +16,9 @@ limitations under the License.
 
 package com.jkovacic.cli;
 
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An abstract class with implemented methods, common to all implementations of IExec.
@@ -35,6 +38,57 @@ abstract class CliAb implements IExec
 	 */
 	protected static CliNonInteractive noninteractiveCtx = new CliNonInteractive();
 	
+	/**
+	 * Executes a command that cannot be aborted.
+	 * 
+	 * @param processor - class that will process the command's outputs
+	 * @param command - a command to be executed
+	 * 
+	 * @return instance of CliOutput, containing exit code with results of stdout and stderr
+	 * 
+	 * @throws CliException when anything fails
+	 */
+	public CliOutput exec(ICliProcessor processor, String command) throws CliException
+	{
+		return exec(processor, command, null);
+	}
+	
+	/**
+	 * Executes a command with a deadline. If it expires, the command is
+	 * aborted the same way as via CliExecHandle.abort().
+	 * 
+	 * @param processor - class that will process the command's outputs
+	 * @param command - a command to be executed
+	 * @param timeout - maximum time for the command's execution
+	 * @param unit - time unit of 'timeout'
+	 * 
+	 * @return instance of CliOutput, containing exit code with results of stdout and stderr, or marked as timed out
+	 * 
+	 * @throws CliException when anything else fails
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, long timeout, TimeUnit unit) throws CliException
+	{
+		CliExecHandle handle = new CliExecHandle(timeout, unit);
+		
+		try
+		{
+			return exec(processor, command, handle);
+		}
+		catch ( CliException ex )
+		{
+			if ( true == handle.isTimedOut() )
+			{
+				return CliOutput.timedOutResult();
+			}
+			
+			throw ex;
+		}
+		finally
+		{
+			handle.cancelDeadline();
+		}
+	}
+	
 	/**
 	 * Executes a command and processes its output using CliNonInteractive
 	 * 
@@ -119,4 +173,174 @@ abstract class CliAb implements IExec
    {
 	   return exec(noninteractiveCtx, commands);
    }
+   
+   /**
+    * Runs exec(processor, command, handle) by the executor. Cancelling
+    * the returned future aborts the command via the handle.
+    * 
+    * @param processor - class that will process the command's outputs
+    * @param command - a command to be executed
+    * @param executor - an executor that will run the command (if null, CliAsync's default executor is used)
+    * 
+    * @return a future that completes with the results of the executed command
+    */
+   public CompletableFuture<CliOutput> execAsync(final ICliProcessor processor, final String command, Executor executor)
+   {
+	   final CliExecHandle handle = new CliExecHandle();
+	   
+	   return CliAsync.run(new CliAsync.IOperation<CliOutput>()
+			   {
+		   			public CliOutput run() throws CliException
+		   			{
+		   				return exec(processor, command, handle);
+		   			}
+			   }, handle, executor);
+   }
+   
+   /**
+    * Runs exec(command) by CliAsync's default executor.
+    * 
+    * @param command - a command to be executed
+    * 
+    * @return a future that completes with the results of the executed command
+    */
+   public CompletableFuture<CliOutput> execAsync(String command)
+   {
+	   return execAsync(noninteractiveCtx, command, null);
+   }
+   
+   /**
+    * Runs prepare() by the executor. If the returned future is cancelled,
+    * cleanup() is called as soon as prepare() completes.
+    * 
+    * @param executor - an executor that will run the preparation (if null, CliAsync's default executor is used)
+    * 
+    * @return a future that completes when the environment is prepared
+    */
+   public CompletableFuture<Void> prepareAsync(Executor executor)
+   {
+	   final CliExecHandle handle = new CliExecHandle();
+	   
+	   return CliAsync.run(new CliAsync.IOperation<Void>()
+			   {
+		   			public Void run() throws CliException
+		   			{
+		   				prepare();
+		   				
+		   				// if cancelled in the meantime, the cleanup is run immediately
+		   				handle.attach(new Runnable()
+		   						{
+		   							public void run()
+		   							{
+		   								try
+		   								{
+		   									cleanup();
+		   								}
+		   								catch ( CliException ex )
+		   								{
+		   									// nothing to do, the future is cancelled anyway
+		   								}
+		   							}
+		   						});
+		   				
+		   				return null;
+		   			}
+			   }, handle, executor);
+   }
+   
+   /**
+    * Executes a command and writes its stdout directly into a channel
+    * using CliChannelSink (see this class for more info).
+    * 
+    * @param command - a command to be executed
+    * @param target - channel to write the command's stdout into (not closed by the method)
+    * 
+    * @return instance of CliTransferOutput, containing exit code, stderr and transfer statistics
+    * 
+    * @throws CliException when anything fails
+    */
+   public CliTransferOutput execToChannel(String command, WritableByteChannel target) throws CliException
+   {
+	   CliOutput retVal = exec(new CliChannelSink(target), command);
+	   
+	   // implementations return the processor's result, this is just a sanity check
+	   if ( false == (retVal instanceof CliTransferOutput) )
+	   {
+		   throw new CliException("Transfer results not available");
+	   }
+	   
+	   return (CliTransferOutput) retVal;
+   }
+   
+   /**
+    * Executes a batch of independent commands in a single invocation (one round trip
+    * over SSH, one TCP connection for rexec and rsh). Commands are framed into a 
+    * single script, executed by "/bin/sh", and their outputs are split back
+    * by sentinel markers, so each command has its own stdout, stderr and exit code.
+    * 
+    * Commands are executed one after another, each in its own subshell, so changes
+    * of the shell's state (e.g. 'cd', variables) do not affect the following commands
+    * and 'exit' only terminates its own command. Stdin of each command is redirected
+    * from /dev/null.
+    * 
+    * @param processor - class that will process each command's outputs
+    * @param commands - list of commands to be executed
+    * 
+    * @return list of CliOutputs, one for each command, in the same order as commands
+    * 
+    * @throws CliException when anything fails
+    */
+   public List<CliOutput> execBatch(ICliProcessor processor, List<String> commands) throws CliException
+   {
+	   if ( null==processor || null==commands )
+	   {
+		   throw new CliException("Nothing to execute");
+	   }
+	   
+	   if ( true == commands.isEmpty() )
+	   {
+		   return new ArrayList<CliOutput>(0);
+	   }
+	   
+	   CliShellFraming framing = new CliShellFraming();
+	   CliShellFraming.Collector collector = framing.collector();
+	   
+	   execScript(collector, framing.script(commands));
+	   
+	   return collector.results(processor, commands.size());
+   }
+   
+   /**
+    * Runs execBatch(processor, commands) (see this method for more info) and processes
+    * each command's outputs using CliNonInteractive.
+    * 
+    * @param commands - list of commands to be executed
+    * 
+    * @return list of CliOutputs, one for each command, in the same order as commands
+    * 
+    * @throws CliException when anything fails
+    */
+   public List<CliOutput> execBatch(List<String> commands) throws CliException
+   {
+	   return execBatch(noninteractiveCtx, commands);
+   }
+   
+   /**
+    * Executes a shell script by "/bin/sh". The script is passed as a single,
+    * properly quoted argument of "/bin/sh -c", which is suitable for all
+    * implementations that pass the command line to a POSIX compatible shell
+    * (like SSH, rexec and rsh servers typically do).
+    * Implementations that do not use a shell should override this method.
+    * 
+    * @param processor - class that will process the script's outputs
+    * @param script - a script to be executed
+    * 
+    * @return instance of CliOutput, containing exit code with results of stdout and stderr
+    * 
+    * @throws CliException when anything fails
+    */
+   protected CliOutput execScript(ICliProcessor processor, String script) throws CliException
+   {
+	   return exec(processor, "/bin/sh -c " + CliShellFraming.quote(script));
+   }
 }
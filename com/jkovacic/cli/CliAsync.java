@@ -0,0 +1,265 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A utility class that runs blocking operations (command executions, 
+ * establishing of connections, etc.) asynchronously and returns
+ * a CompletableFuture with their results.
+ * 
+ * Operations are run by an Executor, passed by the application. When none
+ * is passed, the default executor is used. On JVMs with virtual threads (Java 21+),
+ * the default executor runs each operation by a virtual thread, so a blocked
+ * operation does not occupy a platform thread. On other JVMs, it is a pool of
+ * at most DEFAULT_MAX_THREADS daemon threads, operations in excess wait in a queue
+ * (e.g. executions on 1000 hosts are performed by 64 threads). An operation, run
+ * by the default executor, should therefore not wait for another one, run by the
+ * same executor. The application may set any other executor.
+ * 
+ * Cancelling a returned future aborts the operation via its CliExecHandle.
+ * 
+ * Methods are static so no instantiation is necessary 
+ * 
+ * @author Jernej Kovacic
+ */
+public final class CliAsync 
+{
+	/**
+	 * An operation that may be run asynchronously
+	 * 
+	 * @param <T> type of the operation's result
+	 */
+	public static interface IOperation<T>
+	{
+		/**
+		 * Performs the (blocking) operation
+		 * 
+		 * @return result of the operation
+		 * 
+		 * @throws Exception if the operation fails
+		 */
+		public T run() throws Exception;
+	}
+	
+	/** Maximum number of threads of the default executor when virtual threads are not available */
+	public static final int DEFAULT_MAX_THREADS = 64;
+	
+	// executor, used when none is specified by the application
+	private static volatile Executor defaultExecutor = createDefaultExecutor();
+	
+	/*
+	 * Creates the default executor: virtual threads if the JVM supports them,
+	 * otherwise a bounded pool of daemon threads.
+	 */
+	private static Executor createDefaultExecutor()
+	{
+		try
+		{
+			// the method is only available since Java 21
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		}
+		catch ( Exception ex )
+		{
+			// virtual threads are not supported, a pool of platform threads is used
+		}
+		
+		ThreadPoolExecutor retVal = new ThreadPoolExecutor(
+				DEFAULT_MAX_THREADS, DEFAULT_MAX_THREADS, 60L, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("cli-async-"));
+		// idle threads are not kept
+		retVal.allowCoreThreadTimeOut(true);
+		
+		return retVal;
+	}
+	
+	/*
+	 * The class only contains static methods, hence the constructor is private
+	 */
+	private CliAsync()
+	{
+		// nothing to initialize
+	}
+	
+	/**
+	 * @return the executor, used when none is specified
+	 */
+	public static Executor getDefaultExecutor()
+	{
+		return defaultExecutor;
+	}
+	
+	/**
+	 * Sets the executor that will be used when none is specified
+	 * 
+	 * @param executor - the new default executor
+	 * 
+	 * @throws CliException if no executor is provided
+	 */
+	public static void setDefaultExecutor(Executor executor) throws CliException
+	{
+		if ( null == executor )
+		{
+			throw new CliException("No executor provided");
+		}
+		
+		defaultExecutor = executor;
+	}
+	
+	/**
+	 * Runs the operation asynchronously.
+	 * 
+	 * If the returned future is cancelled, handle.abort() is called.
+	 * 
+	 * @param operation - the operation to run
+	 * @param handle - a handle to abort the operation (may be null if the operation cannot be aborted)
+	 * @param executor - the executor that will run the operation (if null, the default one is used)
+	 * 
+	 * @return a future that completes with the operation's result
+	 */
+	public static <T> CompletableFuture<T> run(final IOperation<T> operation, final CliExecHandle handle, Executor executor)
+	{
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		
+		if ( null != handle )
+		{
+			future.whenComplete(new BiConsumer<T, Throwable>()
+					{
+						public void accept(T result, Throwable ex)
+						{
+							if ( true == future.isCancelled() )
+							{
+								handle.abort();
+							}
+						}
+					});
+		}
+		
+		try
+		{
+			( null==executor ? defaultExecutor : executor ).execute(new Runnable()
+					{
+						public void run()
+						{
+							// no need to start if cancelled in the meantime
+							if ( true == future.isDone() )
+							{
+								return;
+							}
+							
+							try
+							{
+								future.complete(operation.run());
+							}
+							catch ( Throwable ex )
+							{
+								future.completeExceptionally(ex);
+							}
+						}
+					});
+		}
+		catch ( RejectedExecutionException ex )
+		{
+			future.completeExceptionally(ex);
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Sets the maximum number of pooled threads that drain commands' outputs
+	 * (e.g. stderr, while the calling thread reads stdout). Draining is never 
+	 * queued, when all pooled threads are busy, a transient thread is started.
+	 * By default, the maximum is twice the number of processors, but at least 8.
+	 * 
+	 * @param max - maximum number of pooled draining threads
+	 * 
+	 * @throws CliException if the number is not positive
+	 */
+	public static void setMaxDrainerThreads(int max) throws CliException
+	{
+		if ( max < 1 )
+		{
+			throw new CliException("Invalid number of threads");
+		}
+		
+		CliStreamDrainer.setMaxThreads(max);
+	}
+	
+	/**
+	 * @return maximum number of pooled threads that drain commands' outputs
+	 */
+	public static int getMaxDrainerThreads()
+	{
+		return CliStreamDrainer.getMaxThreads();
+	}
+	
+	/*
+	 * A single shared timer for all deadlines (see CliExecHandle).
+	 * Timeouts are typically cancelled long before they expire, so cancelled tasks
+	 * are removed from the queue immediately instead of piling up until their delays elapse.
+	 * The timer's thread only runs short abort actions (closing channels, destroying processes).
+	 */
+	private static final ScheduledThreadPoolExecutor timer = createTimer();
+	
+	private static ScheduledThreadPoolExecutor createTimer()
+	{
+		ScheduledThreadPoolExecutor retVal = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("cli-timer-"));
+		retVal.setRemoveOnCancelPolicy(true);
+		return retVal;
+	}
+	
+	/*
+	 * Schedules a short action on the shared timer.
+	 * 
+	 * @param action - action to be run
+	 * @param delay - delay before the action is run
+	 * @param unit - time unit of 'delay'
+	 * 
+	 * @return a future that may be used to cancel the action
+	 */
+	static ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit)
+	{
+		return timer.schedule(action, delay, unit);
+	}
+	
+	/*
+	 * Thread factory for the default executor, creates named daemon threads
+	 */
+	static final class DaemonThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger counter = new AtomicInteger(0);
+		private final String prefix;
+		
+		DaemonThreadFactory(String prefix)
+		{
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r)
+		{
+			Thread th = new Thread(r, prefix + counter.incrementAndGet());
+			th.setDaemon(true);
+			return th;
+		}
+	}
+}
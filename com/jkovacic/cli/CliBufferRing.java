@@ -0,0 +1,237 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+/**
+ * A fixed ring of direct buffers, decoupling reading of a stream from writing
+ * into another one. The calling thread reads into free buffers and a pooled thread
+ * writes filled buffers, so a momentary stall of one side does not stop the other
+ * one until the whole ring is full (or empty). No buffers are allocated during
+ * the transfer.
+ * 
+ * The class also counts how many times each side had to wait for the other one,
+ * which reveals whether the source or the target is the bottleneck.
+ * 
+ * An instance may only be used for a single transfer.
+ * 
+ * @author Jernej Kovacic
+ */
+final class CliBufferRing 
+{
+	// how often (in milliseconds) a waiting reader checks whether the writer has failed
+	private static final long FAILURE_CHECK_PERIOD = 100L;
+	
+	// marks the end of data in the queue of filled buffers
+	private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+	
+	// buffers, ready to be filled
+	private BlockingQueue<ByteBuffer> free;
+	// buffers, filled with data and waiting to be written (including the EOF mark)
+	private BlockingQueue<ByteBuffer> filled;
+	
+	// set when writing fails, so the reader stops
+	private volatile boolean writerFailed = false;
+	
+	// statistics
+	private volatile long fullWaits = 0;
+	private volatile long emptyWaits = 0;
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param count - number of buffers in the ring (at least 2)
+	 * @param size - size of each buffer in bytes
+	 */
+	CliBufferRing(int count, int size)
+	{
+		int n = Math.max(count, 2);
+		free = new ArrayBlockingQueue<ByteBuffer>(n);
+		filled = new ArrayBlockingQueue<ByteBuffer>(n+1);
+		
+		for ( int i=0; i<n; i++ )
+		{
+			free.add(ByteBuffer.allocateDirect(size));
+		}
+	}
+	
+	/*
+	 * Copies everything from the source into the target. When this method
+	 * returns normally, all data have been written into the target.
+	 * 
+	 * @param source - channel to read from (by the calling thread)
+	 * @param target - channel to write into (by a pooled thread)
+	 * 
+	 * @return number of transferred bytes
+	 * 
+	 * @throws IOException if reading or writing fails
+	 */
+	long transfer(ReadableByteChannel source, final WritableByteChannel target) throws IOException
+	{
+		Future<Long> pendingWriter = CliStreamDrainer.inBackground(new Callable<Long>()
+				{
+					public Long call() throws IOException
+					{
+						return write(target);
+					}
+				});
+		
+		IOException readError = null;
+		try
+		{
+			read(source);
+		}
+		catch ( IOException ex )
+		{
+			readError = ex;
+		}
+		finally
+		{
+			// capacity of 'filled' exceeds the number of buffers, so this never blocks
+			filled.add(EOF);
+		}
+		
+		// even if reading failed, the target must not be used anymore when this method returns
+		long retVal = CliStreamDrainer.await(pendingWriter);
+		
+		if ( null != readError )
+		{
+			throw readError;
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Reads the source into free buffers until its end or until the writer fails
+	 */
+	private void read(ReadableByteChannel source) throws IOException
+	{
+		while ( true )
+		{
+			ByteBuffer buf = free.poll();
+			
+			if ( null == buf )
+			{
+				// the ring is full, the target is slower than the source
+				fullWaits++;
+				
+				try
+				{
+					while ( null == buf && false == writerFailed )
+					{
+						buf = free.poll(FAILURE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+					}
+				}
+				catch ( InterruptedException ex )
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a free buffer");
+				}
+			}
+			
+			if ( true == writerFailed )
+			{
+				// the writer's exception is reported by transfer()
+				return;
+			}
+			
+			// reads as much as currently available (at least 1 byte) or returns -1 at the end
+			if ( source.read(buf) < 0 )
+			{
+				free.add(buf);
+				return;
+			}
+			
+			buf.flip();
+			filled.add(buf);
+		}
+	}
+	
+	/*
+	 * Writes filled buffers into the target until the EOF mark is reached
+	 * 
+	 * @return number of written bytes
+	 */
+	private long write(WritableByteChannel target) throws IOException
+	{
+		long total = 0;
+		
+		try
+		{
+			while ( true )
+			{
+				ByteBuffer buf = filled.poll();
+				
+				if ( null == buf )
+				{
+					// the ring is empty, the source is slower than the target
+					emptyWaits++;
+					buf = filled.take();
+				}
+				
+				if ( EOF == buf )
+				{
+					return total;
+				}
+				
+				while ( buf.hasRemaining() )
+				{
+					total += target.write(buf);
+				}
+				
+				buf.clear();
+				free.add(buf);
+			}
+		}
+		catch ( InterruptedException ex )
+		{
+			writerFailed = true;
+			throw new IOException("Interrupted while waiting for data");
+		}
+		catch ( IOException ex )
+		{
+			writerFailed = true;
+			throw ex;
+		}
+		catch ( RuntimeException ex )
+		{
+			writerFailed = true;
+			throw ex;
+		}
+	}
+	
+	/*
+	 * @return how many times the reader waited for a free buffer (the target was the bottleneck)
+	 */
+	long getFullWaits()
+	{
+		return fullWaits;
+	}
+	
+	/*
+	 * @return how many times the writer waited for data (the source was the bottleneck)
+	 */
+	long getEmptyWaits()
+	{
+		return emptyWaits;
+	}
+}
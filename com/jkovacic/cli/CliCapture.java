@@ -0,0 +1,128 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Implementation of ICliProcessor that handles non-interactive command
+ * execution like CliNonInteractiveCompact, but captures each output stream
+ * according to a capture policy (e.g. only its first bytes or last lines).
+ * 
+ * The amount of discarded output is reported by the returned CliOutput
+ * (see CliOutput.isTruncated(), getOutDroppedBytes(), etc.).
+ * Streams, captured with the policy all(), are accounted for by 
+ * the global memory budget (see CliMemoryBudget).
+ * 
+ * The class is not stateful and one instance can be reused
+ * for an unlimited number of commands.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliCapturePolicy
+ */
+public class CliCapture implements ICliProcessor 
+{
+	private CliCapturePolicy outPolicy;
+	private CliCapturePolicy errPolicy;
+	
+	/**
+	 * Constructor, the same policy is applied to stdout and stderr
+	 * 
+	 * @param policy - capture policy for both streams
+	 */
+	public CliCapture(CliCapturePolicy policy)
+	{
+		this(policy, policy);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param outPolicy - capture policy for stdout
+	 * @param errPolicy - capture policy for stderr
+	 */
+	public CliCapture(CliCapturePolicy outPolicy, CliCapturePolicy errPolicy)
+	{
+		this.outPolicy = ( null==outPolicy ? CliCapturePolicy.all() : outPolicy );
+		this.errPolicy = ( null==errPolicy ? CliCapturePolicy.all() : errPolicy );
+	}
+	
+	/**
+	 * Reads commands output data (from stdout and stderr) and captures it according to the policies 
+	 *
+	 * @param stdinStream - OutputStream of stdin (ignored in this class, only declared because of the interface)
+	 * @param stdoutStream - InputStream of stdout
+	 * @param stderrStream - InputStream of stderr
+	 * 
+	 * @return an instance of CliOutput with processed results
+	 * 
+	 * @throws CliException when an error occurs
+	 */
+	public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException 
+	{
+		// check of input parameters
+		if ( null==stdoutStream || null==stderrStream )
+		{
+			throw new CliException("Output streams not provided");
+		}
+		
+		CliOutput retOutput = new CliOutput();
+		
+		// unbounded output is accounted for by the global memory budget
+		CliMemoryBudget.Lease lease = CliMemoryBudget.getGlobal().lease();
+		
+		// stderr is drained by a pooled thread, stdout by the calling one
+		final InputStream errStream = ( true==errPolicy.isBounded() ? stderrStream : lease.wrap(stderrStream) );
+		Future<CliCapturePolicy.Captured> pendingErr = CliStreamDrainer.inBackground(
+				new Callable<CliCapturePolicy.Captured>()
+				{
+					public CliCapturePolicy.Captured call() throws IOException
+					{
+						return errPolicy.capture(errStream);
+					}
+				});
+		
+		try
+		{
+			try
+			{
+				CliCapturePolicy.Captured out = outPolicy.capture(
+						true==outPolicy.isBounded() ? stdoutStream : lease.wrap(stdoutStream) );
+				retOutput.setOutLines(out.lines);
+				retOutput.setOutDropped(out.droppedBytes, out.droppedLines);
+			}
+			finally
+			{
+				CliCapturePolicy.Captured err = CliStreamDrainer.await(pendingErr);
+				retOutput.setErrLines(err.lines);
+				retOutput.setErrDropped(err.droppedBytes, err.droppedLines);
+			}
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("IO error while capturing stdout or stderr: " + ex.getMessage());
+		}
+		finally
+		{
+			lease.release();
+		}
+		
+		return retOutput;
+	}
+}
@@ -0,0 +1,377 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A policy, determining how much of a command's output stream (stdout or stderr)
+ * is captured by CliCapture. Available policies:
+ * <ul>
+ * <li>all() - the entire stream is kept in memory (like CliNonInteractiveCompact)</li>
+ * <li>head(n) - only the first n bytes are kept, the rest is discarded</li>
+ * <li>tail(n) - only the last n lines are kept (in a ring buffer)</li>
+ * <li>spill(n) - up to n bytes are kept in memory, larger outputs are written
+ *     into a temporary file, mapped into memory</li>
+ * </ul>
+ * 
+ * With head() and tail(), memory consumption per stream is bounded regardless
+ * of the amount of output, so a single runaway command cannot exhaust the heap.
+ * The number of discarded bytes and lines is reported by CliOutput.
+ * 
+ * Policies are immutable and may be shared among any number of commands.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliCapture
+ */
+public final class CliCapturePolicy 
+{
+	/*
+	 * Lines, longer than this (in bytes), are truncated by the tail policy,
+	 * so memory consumption remains bounded even if the output contains no line feeds
+	 */
+	private static final int MAX_TAIL_LINE = 65536;
+	
+	// size of the buffer for reading streams
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	private static enum Kind
+	{
+		ALL,
+		HEAD,
+		TAIL,
+		SPILL;
+	}
+	
+	private Kind kind;
+	private long limit;
+	
+	/*
+	 * Constructor, the factory methods should be used
+	 */
+	private CliCapturePolicy(Kind kind, long limit)
+	{
+		this.kind = kind;
+		this.limit = limit;
+	}
+	
+	/**
+	 * @return a policy that keeps the entire stream in memory
+	 */
+	public static CliCapturePolicy all()
+	{
+		return new CliCapturePolicy(Kind.ALL, 0);
+	}
+	
+	/**
+	 * @param maxBytes - maximum number of bytes to be kept
+	 * 
+	 * @return a policy that keeps the first 'maxBytes' bytes of the stream
+	 * 
+	 * @throws CliException if 'maxBytes' is negative
+	 */
+	public static CliCapturePolicy head(long maxBytes) throws CliException
+	{
+		if ( maxBytes < 0 )
+		{
+			throw new CliException("Invalid capture limit");
+		}
+		
+		return new CliCapturePolicy(Kind.HEAD, maxBytes);
+	}
+	
+	/**
+	 * Note that lines, longer than 64 KiB, are truncated.
+	 * 
+	 * @param maxLines - maximum number of lines to be kept
+	 * 
+	 * @return a policy that keeps the last 'maxLines' lines of the stream
+	 * 
+	 * @throws CliException if 'maxLines' is negative
+	 */
+	public static CliCapturePolicy tail(int maxLines) throws CliException
+	{
+		if ( maxLines < 0 )
+		{
+			throw new CliException("Invalid capture limit");
+		}
+		
+		return new CliCapturePolicy(Kind.TAIL, maxLines);
+	}
+	
+	/**
+	 * Note that at most 2 GiB of output per stream can be mapped, the rest is discarded.
+	 * 
+	 * @param thresholdBytes - maximum number of bytes to be kept on the heap
+	 * 
+	 * @return a policy that spills the stream into a memory mapped temporary file if it exceeds 'thresholdBytes' bytes
+	 * 
+	 * @throws CliException if 'thresholdBytes' is negative
+	 */
+	public static CliCapturePolicy spill(long thresholdBytes) throws CliException
+	{
+		if ( thresholdBytes < 0 )
+		{
+			throw new CliException("Invalid capture limit");
+		}
+		
+		return new CliCapturePolicy(Kind.SPILL, thresholdBytes);
+	}
+	
+	/*
+	 * @return whether heap consumption of the policy is bounded (i.e. it is not all()).
+	 *         Spilled outputs are indexed in the temporary file, not on the heap.
+	 */
+	boolean isBounded()
+	{
+		return ( Kind.ALL != kind );
+	}
+	
+	/*
+	 * Reads the entire stream and captures it according to the policy.
+	 * 
+	 * @param stream - stream to be captured
+	 * 
+	 * @return captured lines and the number of discarded bytes and lines
+	 * 
+	 * @throws IOException if reading fails
+	 */
+	Captured capture(InputStream stream) throws IOException
+	{
+		switch (kind)
+		{
+		case HEAD:
+			return captureHead(stream);
+			
+		case TAIL:
+			return captureTail(stream);
+			
+		case SPILL:
+			return captureSpill(stream);
+			
+		default:
+			return new Captured(CliCharLines.read(stream), 0, 0);
+		}
+	}
+	
+	/*
+	 * Keeps the first 'limit' bytes and counts the rest
+	 */
+	private Captured captureHead(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream kept = new ByteArrayOutputStream((int) Math.min(limit, READ_BUFFER_SIZE));
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		long droppedBytes = 0;
+		long droppedLines = 0;
+		int n;
+		
+		while ( (n = stream.read(buf)) >= 0 )
+		{
+			int keep = (int) Math.min(n, limit - kept.size());
+			kept.write(buf, 0, keep);
+			
+			// the rest is discarded, only line feeds are counted
+			for ( int i=keep; i<n; i++ )
+			{
+				if ( '\n' == buf[i] )
+				{
+					droppedLines++;
+				}
+			}
+			
+			droppedBytes += n - keep;
+		}
+		
+		return new Captured(CliCharLines.read(new ByteArrayInputStream(kept.toByteArray())), droppedBytes, droppedLines);
+	}
+	
+	/*
+	 * Keeps the last 'limit' lines in a ring buffer
+	 */
+	private Captured captureTail(InputStream stream) throws IOException
+	{
+		int maxLines = (int) limit;
+		// grows as lines arrive, so a large limit does not allocate anything in advance
+		ArrayDeque<byte[]> ring = new ArrayDeque<byte[]>();
+		long droppedBytes = 0;
+		long droppedLines = 0;
+		
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		int n;
+		
+		while ( (n = stream.read(buf)) >= 0 )
+		{
+			int start = 0;
+			
+			for ( int i=0; i<=n; i++ )
+			{
+				if ( i<n && '\n'!=buf[i] )
+				{
+					continue;
+				}
+				
+				// append the segment (including the line feed), truncating too long lines
+				int end = ( i<n ? i+1 : n );
+				int keep = Math.min(end-start, MAX_TAIL_LINE-line.size());
+				line.write(buf, start, keep);
+				droppedBytes += end - start - keep;
+				start = end;
+				
+				if ( i == n )
+				{
+					// incomplete line, continue with the next chunk
+					break;
+				}
+				
+				// a complete line, put it into the ring
+				ring.addLast(line.toByteArray());
+				if ( ring.size() > maxLines )
+				{
+					droppedBytes += ring.removeFirst().length;
+					droppedLines++;
+				}
+				
+				line.reset();
+			}
+		}
+		
+		// the last line may not be terminated by a line feed
+		if ( line.size() > 0 )
+		{
+			ring.addLast(line.toByteArray());
+			if ( ring.size() > maxLines )
+			{
+				droppedBytes += ring.removeFirst().length;
+				droppedLines++;
+			}
+		}
+		
+		// join the kept lines in the original order
+		ByteArrayOutputStream kept = new ByteArrayOutputStream();
+		for ( byte[] l : ring )
+		{
+			kept.write(l, 0, l.length);
+		}
+		
+		return new Captured(CliCharLines.read(new ByteArrayInputStream(kept.toByteArray())), droppedBytes, droppedLines);
+	}
+	
+	/*
+	 * Keeps up to 'limit' bytes on the heap, spills larger outputs into a memory mapped file
+	 */
+	private Captured captureSpill(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream mem = new ByteArrayOutputStream((int) Math.min(limit, READ_BUFFER_SIZE));
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		int n = 0;
+		
+		// until the threshold is reached, the stream is kept on the heap
+		while ( mem.size()<=limit && (n = stream.read(buf)) >= 0 )
+		{
+			mem.write(buf, 0, n);
+		}
+		
+		if ( n < 0 )
+		{
+			return new Captured(CliCharLines.read(new ByteArrayInputStream(mem.toByteArray())), 0, 0);
+		}
+		
+		// threshold exceeded, everything is written into a temporary file
+		Path tmp = Files.createTempFile("cli-capture-", ".out");
+		long droppedBytes = 0;
+		long droppedLines = 0;
+		
+		try
+		{
+			FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			
+			try
+			{
+				ByteBuffer out = ByteBuffer.wrap(mem.toByteArray());
+				while ( out.hasRemaining() )
+				{
+					ch.write(out);
+				}
+				mem = null;
+				
+				while ( (n = stream.read(buf)) >= 0 )
+				{
+					// a single mapping is limited to 2 GiB, the rest is discarded
+					int keep = (int) Math.min(n, Integer.MAX_VALUE - ch.position());
+					
+					out = ByteBuffer.wrap(buf, 0, keep);
+					while ( out.hasRemaining() )
+					{
+						ch.write(out);
+					}
+					
+					for ( int i=keep; i<n; i++ )
+					{
+						if ( '\n' == buf[i] )
+						{
+							droppedLines++;
+						}
+					}
+					
+					droppedBytes += n - keep;
+				}
+				
+				return new Captured(new CliSpilledLines(ch), droppedBytes, droppedLines);
+			}
+			finally
+			{
+				// the mapping remains valid after the channel is closed
+				ch.close();
+			}
+		}
+		finally
+		{
+			// on UNIX, the file may be deleted while mapped, elsewhere it is deleted on exit
+			try
+			{
+				Files.delete(tmp);
+			}
+			catch ( IOException ex )
+			{
+				tmp.toFile().deleteOnExit();
+			}
+		}
+	}
+	
+	/*
+	 * Results of capturing of a stream
+	 */
+	static final class Captured
+	{
+		final ICliLines lines;
+		final long droppedBytes;
+		final long droppedLines;
+		
+		Captured(ICliLines lines, long droppedBytes, long droppedLines)
+		{
+			this.lines = lines;
+			this.droppedBytes = droppedBytes;
+			this.droppedLines = droppedLines;
+		}
+	}
+}
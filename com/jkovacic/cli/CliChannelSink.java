@@ -0,0 +1,241 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+/**
+ * Implementation of ICliProcessor that writes the command's stdout 
+ * directly into a channel (e.g. a FileChannel of a local file) as raw bytes, 
+ * without any charset decoding or splitting into lines. It is suitable for
+ * commands, producing large and/or binary outputs (e.g. 'tar c', 'pg_dump').
+ * 
+ * Data is transferred in large chunks via a direct buffer. If the target is
+ * a FileChannel, FileChannel.transferFrom() is used, letting the JDK
+ * pick the most efficient way of copying. Alternatively, data may be passed
+ * through a ring of direct buffers (see setRingSize()), so reading of stdout and
+ * writing into the target are performed by separate threads and a momentary
+ * stall of one side does not stop the other one. Stderr is drained concurrently
+ * and stored as lines. Results are returned as an instance of CliTransferOutput,
+ * also reporting the number of transferred bytes and the throughput.
+ * 
+ * As all CLI implementations (local, SSH, rexec, rsh) pass their streams to an
+ * ICliProcessor, the class works with any of them. For local commands, redirection
+ * via CliLocalCommand.setOutputFile() avoids copying by the JVM altogether.
+ * 
+ * The target channel is not closed by the class. The class is not stateful
+ * (except for the target) and may be reused for subsequent commands.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliTransferOutput
+ */
+public class CliChannelSink implements ICliProcessor 
+{
+	/** Default size of the transfer buffer (1 MiB) */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	
+	private WritableByteChannel target;
+	private int bufferSize;
+	private int ringSize = 1;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param target - channel to write the command's stdout into
+	 */
+	public CliChannelSink(WritableByteChannel target)
+	{
+		this(target, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param target - channel to write the command's stdout into
+	 * @param bufferSize - size of the transfer buffer in bytes
+	 */
+	public CliChannelSink(WritableByteChannel target, int bufferSize)
+	{
+		this.target = target;
+		this.bufferSize = ( bufferSize>0 ? bufferSize : DEFAULT_BUFFER_SIZE );
+	}
+	
+	/**
+	 * Sets the number of buffers in a ring, decoupling reading of stdout
+	 * from writing into the target. Each buffer is of the size, passed 
+	 * to the constructor.
+	 * 
+	 * @param buffers - number of buffers; 1 (default) means that data are copied through a single buffer by one thread
+	 */
+	public void setRingSize(int buffers)
+	{
+		this.ringSize = Math.max(buffers, 1);
+	}
+	
+	/**
+	 * Transfers the command's stdout into the target channel and collects its stderr
+	 * 
+	 * @param stdinStream - OutputStream of stdin (ignored in this class, only declared because of the interface)
+	 * @param stdoutStream - InputStream of stdout
+	 * @param stderrStream - InputStream of stderr
+	 * 
+	 * @return an instance of CliTransferOutput with stderr lines and transfer statistics
+	 * 
+	 * @throws CliException when an error occurs
+	 */
+	public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException 
+	{
+		// check of input parameters
+		if ( null==stdoutStream || null==stderrStream )
+		{
+			throw new CliException("Output streams not provided");
+		}
+		
+		if ( null == target )
+		{
+			throw new CliException("No target channel provided");
+		}
+		
+		// stderr is drained by a pooled thread, stdout by the calling one
+		final InputStream errStream = stderrStream;
+		Future<CliCharLines> pendingErr = CliStreamDrainer.inBackground(
+				new Callable<CliCharLines>()
+				{
+					public CliCharLines call() throws IOException
+					{
+						return CliCharLines.read(errStream);
+					}
+				});
+		
+		CliTransferOutput retOutput = null;
+		long start = System.nanoTime();
+		
+		try
+		{
+			if ( ringSize > 1 )
+			{
+				CliBufferRing ring = new CliBufferRing(ringSize, bufferSize);
+				long bytes = ring.transfer(Channels.newChannel(stdoutStream), target);
+				retOutput = new CliTransferOutput(bytes, System.nanoTime()-start);
+				retOutput.setRingWaits(ring.getFullWaits(), ring.getEmptyWaits());
+			}
+			else
+			{
+				long bytes = transfer(Channels.newChannel(stdoutStream));
+				retOutput = new CliTransferOutput(bytes, System.nanoTime()-start);
+			}
+		}
+		catch ( IOException ex )
+		{
+			/*
+			 * The command may still be running and would block on its full stdout,
+			 * so its stderr would never end. Stdout is closed and stderr is abandoned,
+			 * its draining ends when the command's streams are closed.
+			 */
+			try
+			{
+				stdoutStream.close();
+			}
+			catch ( IOException ignore )
+			{
+				// the original error is reported
+			}
+			
+			pendingErr.cancel(true);
+			throw new CliException("IO error while transferring stdout: " + ex.getMessage());
+		}
+		
+		try
+		{
+			retOutput.setErrLines(CliStreamDrainer.await(pendingErr));
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("IO error while reading stderr: " + ex.getMessage());
+		}
+		
+		return retOutput;
+	}
+	
+	/*
+	 * Copies everything from the source into the target channel
+	 * 
+	 * @param source - the command's stdout
+	 * 
+	 * @return number of transferred bytes
+	 * 
+	 * @throws IOException if reading or writing fails
+	 */
+	private long transfer(ReadableByteChannel source) throws IOException
+	{
+		long total = 0;
+		
+		if ( target instanceof FileChannel )
+		{
+			FileChannel fc = (FileChannel) target;
+			long pos = fc.position();
+			
+			while ( true )
+			{
+				long n = fc.transferFrom(source, pos, bufferSize);
+				
+				if ( n <= 0 )
+				{
+					/*
+					 * transferFrom() returns 0 both at the end of stream and when no data
+					 * is currently available, so the end of stream must be checked explicitly
+					 */
+					ByteBuffer probe = ByteBuffer.allocate(1);
+					if ( source.read(probe) < 0 )
+					{
+						break;
+					}
+					
+					probe.flip();
+					fc.write(probe, pos);
+					n = 1;
+				}
+				
+				pos += n;
+				total += n;
+			}
+			
+			// transferFrom() does not modify the channel's position
+			fc.position(pos);
+		}
+		else
+		{
+			ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+			
+			while ( source.read(buf) >= 0 )
+			{
+				buf.flip();
+				while ( buf.hasRemaining() )
+				{
+					total += target.write(buf);
+				}
+				buf.clear();
+			}
+		}
+		
+		return total;
+	}
+}
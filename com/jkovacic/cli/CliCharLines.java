@@ -0,0 +1,214 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Implementation of ICliLines that stores all lines in a single array of
+ * characters (line separators are omitted) and an array of offsets where
+ * each line starts. No String is created until a line is actually requested.
+ * 
+ * Compared to an array of strings, this saves an object header, a reference
+ * and an additional copy of the text per line, and requires no regex based
+ * splitting.
+ * 
+ * @author Jernej Kovacic
+ */
+final class CliCharLines implements ICliLines 
+{
+	// size of the buffer for reading of the stream
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	// initial capacities of the arrays, they are doubled when necessary
+	private static final int INITIAL_TEXT_CAPACITY = 256;
+	private static final int INITIAL_LINE_CAPACITY = 16;
+	
+	// text of all lines, without line separators
+	private char[] text = new char[INITIAL_TEXT_CAPACITY];
+	// number of used characters in text
+	private int textLen = 0;
+	
+	/*
+	 * Offsets of lines' beginnings. The line i starts at offsets[i] and ends
+	 * (exclusively) at offsets[i+1]. Hence the array contains count+1 used elements.
+	 */
+	private int[] offsets = new int[INITIAL_LINE_CAPACITY];
+	// number of complete lines
+	private int count = 0;
+	
+	/*
+	 * Constructor, only instantiated by read()
+	 */
+	private CliCharLines()
+	{
+		offsets[0] = 0;
+	}
+	
+	/*
+	 * Reads the whole stream and stores its lines.
+	 * 
+	 * Lines are terminated by '\n', '\r' or "\r\n", the same way as
+	 * BufferedReader.readLine() does. Trailing empty lines are omitted.
+	 * 
+	 * @param stream - stream to be read
+	 * 
+	 * @return an instance of the class with all lines of the stream
+	 * 
+	 * @throws IOException if reading fails
+	 */
+	static CliCharLines read(InputStream stream) throws IOException
+	{
+		CliCharLines lines = new CliCharLines();
+		Reader reader = new InputStreamReader(stream);
+		char[] buf = new char[READ_BUFFER_SIZE];
+		boolean lastCR = false;
+		int n;
+		
+		while ( (n = reader.read(buf)) >= 0 )
+		{
+			// beginning of a part of the buffer that will be copied into text
+			int segStart = 0;
+			
+			for ( int i=0; i<n; i++ )
+			{
+				char c = buf[i];
+				if ( '\n'!=c && '\r'!=c )
+				{
+					lastCR = false;
+					continue;  // for i
+				}
+				
+				// a '\n', immediately following a '\r', is a part of the same separator
+				if ( '\n'==c && true==lastCR )
+				{
+					lastCR = false;
+					segStart = i + 1;
+					continue;  // for i
+				}
+				
+				lines.append(buf, segStart, i-segStart);
+				lines.endLine();
+				segStart = i + 1;
+				lastCR = ( '\r' == c );
+			}  // for i
+			
+			lines.append(buf, segStart, n-segStart);
+		}  // while
+		
+		// the last line may not be terminated by a separator
+		if ( lines.textLen > lines.offsets[lines.count] )
+		{
+			lines.endLine();
+		}
+		
+		lines.trim();
+		
+		return lines;
+	}
+	
+	/*
+	 * Appends characters to the current (not terminated yet) line
+	 */
+	private void append(char[] buf, int start, int len)
+	{
+		if ( len <= 0 )
+		{
+			return;
+		}
+		
+		if ( textLen + len > text.length )
+		{
+			text = Arrays.copyOf(text, Math.max(2*text.length, textLen+len));
+		}
+		
+		System.arraycopy(buf, start, text, textLen, len);
+		textLen += len;
+	}
+	
+	/*
+	 * Terminates the current line
+	 */
+	private void endLine()
+	{
+		if ( count+2 > offsets.length )
+		{
+			offsets = Arrays.copyOf(offsets, 2*offsets.length);
+		}
+		
+		count++;
+		offsets[count] = textLen;
+	}
+	
+	/*
+	 * Drops trailing empty lines and releases unused capacity of both arrays
+	 */
+	private void trim()
+	{
+		while ( count>0 && offsets[count]==offsets[count-1] )
+		{
+			count--;
+		}
+		
+		textLen = offsets[count];
+		text = Arrays.copyOf(text, textLen);
+		offsets = Arrays.copyOf(offsets, count+1);
+	}
+	
+	/**
+	 * @return number of stored lines
+	 */
+	public int count()
+	{
+		return count;
+	}
+	
+	/**
+	 * Decodes the requested line
+	 * 
+	 * @param index - index of the line (between 0 and count()-1)
+	 * 
+	 * @return the line without the line separator
+	 * 
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public String get(int index)
+	{
+		if ( index<0 || index>=count )
+		{
+			throw new IndexOutOfBoundsException("Invalid line index: " + index);
+		}
+		
+		return new String(text, offsets[index], offsets[index+1]-offsets[index]);
+	}
+	
+	/**
+	 * @return all lines as an array of strings
+	 */
+	public String[] toArray()
+	{
+		String[] retVal = new String[count];
+		
+		for ( int i=0; i<count; i++ )
+		{
+			retVal[i] = get(i);
+		}
+		
+		return retVal;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.util.concurrent.*;
+
+/**
+ * A handle to a single (running) command execution that allows
+ * the command to be aborted from another thread.
+ * 
+ * While a command is running, the implementation of IExec (or the
+ * underlying SSH or r* class) attaches an action that actually aborts it,
+ * e.g. closes the SSH channel or destroys the local process. Calling abort()
+ * runs this action. If abort() is called before the action is attached,
+ * it is run immediately at attaching.
+ * 
+ * A handle may also have a deadline. When it expires, the handle is aborted
+ * automatically by a single timer, shared by all handles (no thread is
+ * dedicated to any timeout). Implementations, waiting for a command with 
+ * their own timeouts, should not wait longer than getRemainingMillis().
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see IExec
+ */
+public final class CliExecHandle 
+{
+	// the action that aborts the running command
+	private Runnable abortAction = null;
+	
+	// has the command been aborted?
+	private boolean aborted = false;
+	
+	// deadline (as System.nanoTime()) and the timer's task that aborts the handle when it expires
+	private boolean hasDeadline = false;
+	private long deadline = 0;
+	private ScheduledFuture<?> expiry = null;
+	
+	/**
+	 * Constructor
+	 */
+	public CliExecHandle()
+	{
+		// nothing to initialize
+	}
+	
+	/**
+	 * Constructor of a handle with a deadline. The handle is aborted 
+	 * automatically when the timeout (measured from now) expires.
+	 * 
+	 * @param timeout - timeout, non positive values mean the deadline has already expired
+	 * @param unit - time unit of 'timeout'
+	 */
+	public CliExecHandle(long timeout, TimeUnit unit)
+	{
+		long nanos = unit.toNanos(timeout);
+		
+		this.hasDeadline = true;
+		this.deadline = System.nanoTime() + nanos;
+		
+		this.expiry = CliAsync.schedule(new Runnable()
+				{
+					public void run()
+					{
+						abort();
+					}
+				}, Math.max(nanos, 0), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return whether the handle has a deadline
+	 */
+	public boolean hasDeadline()
+	{
+		return hasDeadline;
+	}
+	
+	/**
+	 * @return whether the handle's deadline has expired (always false if it has no deadline)
+	 */
+	public boolean isTimedOut()
+	{
+		return ( true==hasDeadline && System.nanoTime()-deadline>=0 );
+	}
+	
+	/**
+	 * Returns the time remaining until the deadline.
+	 * 
+	 * @return remaining time in milliseconds (0 if expired), Long.MAX_VALUE if the handle has no deadline
+	 */
+	public long getRemainingMillis()
+	{
+		if ( false == hasDeadline )
+		{
+			return Long.MAX_VALUE;
+		}
+		
+		long remaining = deadline - System.nanoTime();
+		return ( remaining<=0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remaining) + 1 );
+	}
+	
+	/**
+	 * Cancels the deadline, e.g. when the command has completed.
+	 * This releases the shared timer's resources immediately. 
+	 * Has no effect on handles without a deadline.
+	 */
+	public void cancelDeadline()
+	{
+		ScheduledFuture<?> task = null;
+		
+		synchronized(this)
+		{
+			task = expiry;
+			expiry = null;
+		}
+		
+		if ( null != task )
+		{
+			task.cancel(false);
+		}
+	}
+	
+	/**
+	 * Aborts the command by running the attached action. 
+	 * Subsequent calls have no effect.
+	 */
+	public void abort()
+	{
+		Runnable action = null;
+		
+		synchronized(this)
+		{
+			if ( true == aborted )
+			{
+				return;
+			}
+			
+			aborted = true;
+			action = abortAction;
+			abortAction = null;
+		}
+		
+		// the action is run outside of the synchronized block as it may block
+		if ( null != action )
+		{
+			action.run();
+		}
+	}
+	
+	/**
+	 * @return whether abort() has been called
+	 */
+	public synchronized boolean isAborted()
+	{
+		return aborted;
+	}
+	
+	/**
+	 * Attaches the action that aborts the running command. Typically called
+	 * by implementations of IExec, Ssh2 or Rclient when a command is started. 
+	 * If the handle has already been aborted, the action is run immediately.
+	 * 
+	 * @param action - the action that aborts the command
+	 */
+	public void attach(Runnable action)
+	{
+		synchronized(this)
+		{
+			if ( false == aborted )
+			{
+				abortAction = action;
+				return;
+			}
+		}
+		
+		if ( null != action )
+		{
+			action.run();
+		}
+	}
+	
+	/**
+	 * Detaches the abort action. Typically called when the command
+	 * has completed and there is nothing to abort anymore.
+	 */
+	public synchronized void detach()
+	{
+		abortAction = null;
+	}
+}
@@ -45,11 +45,35 @@ public class CliFactory
 		return CliLocal.getInstance();
 	}
 	
+	/**
+	 * Instantiates a class that executes local commands via a pool of 
+	 * pre-started shells ("/bin/sh"), avoiding a new process per command.
+	 * prepare() starts the shells, cleanup() terminates them.
+	 * 
+	 * @param size - number of shells in the pool
+	 * 
+	 * @return an instance of CliLocalShellPool
+	 * 
+	 * @throws CliException if the size is invalid
+	 * 
+	 * @see CliLocalShellPool
+	 */
+	public static CliLocalShellPool getLocalShellPool(int size) throws CliException
+	{
+		// sanity check
+		if ( size < 1 )
+		{
+			throw new CliException("Invalid number of shells");
+		}
+		
+		return new CliLocalShellPool(size, CliPersistentShell.DEFAULT_SHELL);
+	}
+	
 	/**
 	 * Instantiates one of implemented classes with SSH exec functionality.
 	 * 
-	 * At the moment there is only one implementation available, based
-	 * on the library Ganymed SSH2.
+	 * At the moment there are implementations, based on the libraries
+	 * Ganymed SSH2, JSch and Apache MINA SSHD, available.
 	 * 
 	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
 	 * @param host - a class with data of the SH server to connect to
@@ -60,13 +84,41 @@ public class CliFactory
 	 * 
 	 * @throws CliException when missing SSH parameters
 	 * 
-	 * @see SshGanymed
+	 * @see SshGanymed, SshJsch, SshMina
 	 */
 	public static CliSsh getSsh(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws CliException
 	{		
-		CliSsh retVal = null;
-		Ssh2 ssh = null;	// instance of a class, derived from Ssh2
+		// sanity check
+		if ( null==host || null==user || null==algs )
+		{
+			throw new CliException("Not all SSH parameters provided");
+		}
+		
+		if ( null == which )
+		{
+			return null;
+		}
 		
+		return getSsh(which.getProviderName(), host, user, algs);
+	}
+	
+	/**
+	 * Instantiates a class with SSH exec functionality, implemented by
+	 * a registered provider (a built-in or a 3rd party one).
+	 * 
+	 * @param provider - name of the provider (case insensitive), e.g. "mina"
+	 * @param host - a class with data of the SH server to connect to
+	 * @param user - a class with user credentials for authentication to the SSH server
+	 * @param algs - a class with preferred encryption algorithms
+	 * 
+	 * @return an instance of a class with SSH exec functionality
+	 * 
+	 * @throws CliException when missing SSH parameters or the provider is not available
+	 * 
+	 * @see ISshProvider
+	 */
+	public static CliSsh getSsh(String provider, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws CliException
+	{
 		// sanity check
 		if ( null==host || null==user || null==algs )
 		{
@@ -75,40 +127,41 @@ public class CliFactory
 		
 		try
 		{
-			if ( null != which )
-			{
-				switch (which)
-				{
-				case GANYMED:
-					ssh= SshFactory.getGanymedInstance(host, user, algs);
-					break;
-					
-				case JSCH:
-					ssh = SshFactory.getJschInstance(host, user, algs);
-					break;
-					
-				default: 
-					// implementations with other SSH libraries currently not implemented
-					ssh = null;
-				}
-			
-
-				// if a SSH class has been instantiated, use it
-				// to construct an instance of CliSsh
-				if ( null == ssh )
-				{
-					throw new CliException("No SSH context could be instantiated");
-				}
-			
-				retVal = new CliSsh(ssh);
-			}  // if which!=null
-		}  // try
+			return new CliSsh(SshFactory.getInstance(provider, host, user, algs));
+		}
 		catch ( SshException ex )
 		{
 			throw new CliException("SshException caught: '" + ex.getMessage() + "'");
 		}
+	}
+	
+	/**
+	 * Instantiates a class with SSH exec functionality whose sessions are 
+	 * borrowed from a session pool. prepare() borrows an established session
+	 * (or establishes a new one) and cleanup() returns it into the pool, 
+	 * so repeated prepare/exec/cleanup cycles avoid costly SSH handshakes.
+	 * 
+	 * @param pool - a pool of SSH sessions
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param host - a class with data of the SH server to connect to
+	 * @param user - a class with user credentials for authentication to the SSH server
+	 * @param algs - a class with preferred encryption algorithms
+	 * 
+	 * @return an instance of a class with SSH exec functionality
+	 * 
+	 * @throws CliException when missing SSH parameters
+	 * 
+	 * @see SshSessionPool
+	 */
+	public static CliSsh getSsh(SshSessionPool pool, Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws CliException
+	{
+		// sanity check
+		if ( null==pool || null==which || null==host || null==user || null==algs )
+		{
+			throw new CliException("Not all SSH parameters provided");
+		}
 		
-		return retVal;
+		return new CliSsh(pool, which, host, user, algs);
 	}
 	
 	/**
@@ -146,6 +199,49 @@ public class CliFactory
 		return getSsh(sshContext, true);
 	}
 	
+	/**
+	 * Instantiates a class that executes commands via a persistent shell ("/bin/sh"),
+	 * started over another IExec implementation. prepare() starts the shell,
+	 * cleanup() terminates it.
+	 * 
+	 * @param transport - an IExec implementation that will run the shell (e.g. an instance of CliSsh)
+	 * 
+	 * @return an instance of CliPersistentShell
+	 * 
+	 * @throws CliException if no transport is provided
+	 * 
+	 * @see CliPersistentShell
+	 */
+	public static CliPersistentShell getPersistentShell(IExec transport) throws CliException
+	{
+		return getPersistentShell(transport, CliPersistentShell.DEFAULT_SHELL);
+	}
+	
+	/**
+	 * Instantiates a class that executes commands via a persistent shell,
+	 * started over another IExec implementation. The shell must be compatible
+	 * with the POSIX shell (e.g. sh, bash, ksh, dash).
+	 * 
+	 * @param transport - an IExec implementation that will run the shell (e.g. an instance of CliSsh)
+	 * @param shell - command that starts the shell, e.g. "/bin/bash"
+	 * 
+	 * @return an instance of CliPersistentShell
+	 * 
+	 * @throws CliException if no transport or shell is provided
+	 * 
+	 * @see CliPersistentShell
+	 */
+	public static CliPersistentShell getPersistentShell(IExec transport, String shell) throws CliException
+	{
+		// sanity check
+		if ( null==transport || null==shell || 0==shell.length() )
+		{
+			throw new CliException("No transport or shell provided");
+		}
+		
+		return new CliPersistentShell(transport, shell);
+	}
+	
 	/**
 	 * Instantiates a class with implemented Rexec functionality.
 	 * 
@@ -0,0 +1,311 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jkovacic.ssh2.*;
+
+/**
+ * Executes the same command on many hosts in parallel.
+ * 
+ * For each host, the CLI environment is prepared, the command is executed
+ * and the environment is cleaned up, just like a typical application
+ * would do in a loop. However, up to maxConcurrency hosts are processed
+ * simultaneously and results are returned (via CliFleetResults) as soon
+ * as each host finishes. A failure of one host is reported as its result
+ * and never affects other hosts.
+ * 
+ * An instance of this class owns a pool of worker threads and can be
+ * reused for any number of fleet executions. When not needed anymore,
+ * shutdown() should be called.
+ * 
+ * Note that the same instance of ICliProcessor is used for all hosts
+ * simultaneously, so it must be thread safe. This applies to
+ * CliNonInteractive and CliNonInteractiveCompact.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliFleetResults, CliHostResult
+ */
+public class CliFleet 
+{
+	// worker threads, their number determines the maximum concurrency
+	private ExecutorService workers = null;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxConcurrency - maximum number of hosts, processed simultaneously
+	 * 
+	 * @throws CliException if maxConcurrency is not positive
+	 */
+	public CliFleet(int maxConcurrency) throws CliException
+	{
+		if ( maxConcurrency <= 0 )
+		{
+			throw new CliException("Invalid maximum concurrency");
+		}
+		
+		workers = Executors.newFixedThreadPool(maxConcurrency, new CliAsync.DaemonThreadFactory("cli-fleet-"));
+	}
+	
+	/**
+	 * Executes the command on all hosts, given by prebuilt CLI environments.
+	 * Returns immediately, results are available via the returned object.
+	 * 
+	 * Each environment is prepared before and cleaned up after the command
+	 * execution. The same environment should not appear in the list more than once.
+	 * 
+	 * @param targets - list of CLI environments (e.g. instances of CliSsh), one per host
+	 * @param processor - a thread safe class that will process the commands' outputs
+	 * @param command - full command to execute, given as one line
+	 * 
+	 * @return results, available as soon as each host finishes
+	 * 
+	 * @throws CliException if input parameters are invalid or the fleet has been shut down
+	 */
+	public CliFleetResults exec(List<? extends IExec> targets, ICliProcessor processor, String command) throws CliException
+	{
+		checkParams(targets, processor, command);
+		
+		List<CliExecHandle> handles = createHandles(targets.size());
+		CliFleetResults results = new CliFleetResults(handles);
+		
+		int i = 0;
+		for ( IExec target : targets )
+		{
+			submit(new HostTask(i, null, target, null, processor, command, handles.get(i), results));
+			i++;
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Executes the command on all hosts over SSH. Returns immediately, results 
+	 * are available via the returned object.
+	 * 
+	 * A SSH connection is established to each host, the command is executed
+	 * and the connection is terminated. All hosts share the same user credentials
+	 * and encryption algorithms.
+	 * 
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param hosts - list of SSH servers
+	 * @param user - a class with user credentials for authentication to all SSH servers
+	 * @param algs - a class with preferred encryption algorithms
+	 * @param processor - a thread safe class that will process the commands' outputs
+	 * @param command - full command to execute, given as one line
+	 * 
+	 * @return results, available as soon as each host finishes
+	 * 
+	 * @throws CliException if input parameters are invalid or the fleet has been shut down
+	 */
+	public CliFleetResults execSsh(
+			Ssh2.SshImpl which, 
+			List<HostId> hosts, 
+			UserCredentials user, 
+			EncryptionAlgorithms algs,
+			ICliProcessor processor, 
+			String command) throws CliException
+	{
+		checkParams(hosts, processor, command);
+		
+		if ( null==which || null==user || null==algs )
+		{
+			throw new CliException("Not all SSH parameters provided");
+		}
+		
+		List<CliExecHandle> handles = createHandles(hosts.size());
+		CliFleetResults results = new CliFleetResults(handles);
+		
+		int i = 0;
+		for ( HostId host : hosts )
+		{
+			SshTarget factory = new SshTarget(which, host, user, algs);
+			String name = ( null==host ? null : host.hostname );
+			submit(new HostTask(i, name, null, factory, processor, command, handles.get(i), results));
+			i++;
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Shuts down the worker threads. Hosts, already submitted, are still processed.
+	 */
+	public void shutdown()
+	{
+		workers.shutdown();
+	}
+	
+	/*
+	 * Sanity check of common input parameters
+	 */
+	private void checkParams(List<?> targets, ICliProcessor processor, String command) throws CliException
+	{
+		if ( null==targets || 0==targets.size() )
+		{
+			throw new CliException("No hosts provided");
+		}
+		
+		if ( null == processor )
+		{
+			throw new CliException("No processor provided");
+		}
+		
+		if ( null==command || 0==command.length() )
+		{
+			throw new CliException("No command to execute");
+		}
+	}
+	
+	/*
+	 * Creates a list of handles, one per host
+	 */
+	private List<CliExecHandle> createHandles(int n)
+	{
+		List<CliExecHandle> retVal = new ArrayList<CliExecHandle>(n);
+		
+		for ( int i=0; i<n; i++ )
+		{
+			retVal.add(new CliExecHandle());
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Submits a task to the workers
+	 */
+	private void submit(HostTask task) throws CliException
+	{
+		try
+		{
+			workers.execute(task);
+		}
+		catch ( RejectedExecutionException ex )
+		{
+			throw new CliException("Fleet has been shut down");
+		}
+	}
+	
+	/*
+	 * Instantiates a CLI environment for a host, when it is about to be processed
+	 */
+	private static final class SshTarget
+	{
+		private Ssh2.SshImpl which;
+		private HostId host;
+		private UserCredentials user;
+		private EncryptionAlgorithms algs;
+		
+		SshTarget(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs)
+		{
+			this.which = which;
+			this.host = host;
+			this.user = user;
+			this.algs = algs;
+		}
+		
+		IExec create() throws CliException
+		{
+			return CliFactory.getSsh(which, host, user, algs);
+		}
+	}
+	
+	/*
+	 * Processes a single host: prepare, exec, cleanup
+	 */
+	private static final class HostTask implements Runnable
+	{
+		private int index;
+		private String host;
+		private IExec target;
+		private SshTarget factory;
+		private ICliProcessor processor;
+		private String command;
+		private CliExecHandle handle;
+		private CliFleetResults results;
+		
+		HostTask(int index, String host, IExec target, SshTarget factory, 
+				ICliProcessor processor, String command, CliExecHandle handle, CliFleetResults results)
+		{
+			this.index = index;
+			this.host = host;
+			this.target = target;
+			this.factory = factory;
+			this.processor = processor;
+			this.command = command;
+			this.handle = handle;
+			this.results = results;
+		}
+		
+		public void run()
+		{
+			CliOutput out = null;
+			CliException err = null;
+			
+			try
+			{
+				if ( true == handle.isAborted() )
+				{
+					throw new CliException("Command execution aborted");
+				}
+				
+				if ( null==target && null!=factory )
+				{
+					target = factory.create();
+				}
+				
+				if ( null == target )
+				{
+					throw new CliException("No CLI environment provided");
+				}
+				
+				target.prepare();
+				
+				try
+				{
+					out = target.exec(processor, command, handle);
+				}
+				finally
+				{
+					try
+					{
+						target.cleanup();
+					}
+					catch ( CliException ex )
+					{
+						// the command's result is more important than a failed cleanup
+					}
+				}
+			}
+			catch ( CliException ex )
+			{
+				err = ex;
+			}
+			catch ( RuntimeException ex )
+			{
+				err = new CliException("Unexpected failure: " + ex.getMessage());
+			}
+			
+			results.add(new CliHostResult(index, host, target, ( null==err ? out : null ), err));
+		}
+	}
+}
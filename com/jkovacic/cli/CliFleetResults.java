@@ -0,0 +1,203 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Per-host results of a command, executed on many hosts by CliFleet.
+ * 
+ * Results become available as soon as each host finishes, in order of
+ * completion (not in order of hosts). They can be fetched one by one
+ * with take() or poll().
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliFleet, CliHostResult
+ */
+public class CliFleetResults 
+{
+	// completed results, not fetched yet
+	private BlockingQueue<CliHostResult> completed = new LinkedBlockingQueue<CliHostResult>();
+	
+	// handles of all hosts' commands, used for cancelling
+	private List<CliExecHandle> handles;
+	
+	// number of hosts
+	private int size;
+	
+	// number of results that have not been fetched yet
+	private int remaining;
+	
+	/*
+	 * Constructor, only called by CliFleet
+	 * 
+	 * @param handles - handles of all hosts' commands
+	 */
+	CliFleetResults(List<CliExecHandle> handles)
+	{
+		this.handles = handles;
+		this.size = handles.size();
+		this.remaining = this.size;
+	}
+	
+	/*
+	 * Called by CliFleet's workers when a host finishes
+	 */
+	void add(CliHostResult result)
+	{
+		completed.add(result);
+	}
+	
+	/**
+	 * @return total number of hosts
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @return number of results that have not been fetched yet
+	 */
+	public synchronized int remaining()
+	{
+		return remaining;
+	}
+	
+	/**
+	 * Waits until the next host finishes and returns its result.
+	 * 
+	 * @return result of the next finished host or null if all results have already been fetched
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public CliHostResult take() throws InterruptedException
+	{
+		if ( false == reserve() )
+		{
+			return null;
+		}
+		
+		try
+		{
+			return completed.take();
+		}
+		catch ( InterruptedException ex )
+		{
+			// nothing fetched, undo the reservation
+			release();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Waits up to the specified time until the next host finishes and returns its result.
+	 * 
+	 * @param timeout - how long to wait
+	 * @param unit - unit of timeout
+	 * 
+	 * @return result of the next finished host or null if none finished in time or all results have already been fetched
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public CliHostResult poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		if ( false == reserve() )
+		{
+			return null;
+		}
+		
+		CliHostResult retVal = null;
+		
+		try
+		{
+			retVal = completed.poll(timeout, unit);
+		}
+		catch ( InterruptedException ex )
+		{
+			// nothing fetched, undo the reservation
+			release();
+			throw ex;
+		}
+		
+		if ( null == retVal )
+		{
+			// nothing fetched, undo the reservation
+			release();
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Waits until all hosts finish and returns all results that have not been fetched yet.
+	 * 
+	 * @return list of the remaining results in order of completion
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<CliHostResult> takeAll() throws InterruptedException
+	{
+		List<CliHostResult> retVal = new ArrayList<CliHostResult>();
+		CliHostResult res = null;
+		
+		while ( null != (res = take()) )
+		{
+			retVal.add(res);
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Aborts commands on all hosts that have not finished yet.
+	 * Their results will report failures.
+	 */
+	public void cancel()
+	{
+		for ( CliExecHandle h : handles )
+		{
+			h.abort();
+		}
+	}
+	
+	/*
+	 * Reserves one of the remaining results
+	 * 
+	 * @return false if all results have already been fetched
+	 */
+	private synchronized boolean reserve()
+	{
+		if ( remaining <= 0 )
+		{
+			return false;
+		}
+		
+		remaining--;
+		return true;
+	}
+	
+	/*
+	 * Undoes a reservation when no result has been fetched
+	 */
+	private synchronized void release()
+	{
+		remaining++;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+/**
+ * Result of a command, executed on a single host by CliFleet.
+ * 
+ * Either the command's output or the exception (thrown while preparing
+ * the environment, executing the command or cleaning up) is available.
+ * A failure of one host never affects results of other hosts.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliFleet, CliFleetResults
+ */
+public class CliHostResult 
+{
+	// index of the host in the list passed to CliFleet
+	private int index;
+	
+	// host name, if known
+	private String host;
+	
+	// the CLI environment that executed the command (null if it could not be instantiated)
+	private IExec target;
+	
+	// command's output (null if execution failed)
+	private CliOutput output;
+	
+	// exception, thrown during execution (null if successful)
+	private CliException error;
+	
+	/*
+	 * Constructor, only called by CliFleet
+	 */
+	CliHostResult(int index, String host, IExec target, CliOutput output, CliException error)
+	{
+		this.index = index;
+		this.host = host;
+		this.target = target;
+		this.output = output;
+		this.error = error;
+	}
+	
+	/**
+	 * @return index of the host in the list, passed to CliFleet
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+	
+	/**
+	 * @return host name or null if not known (e.g. when instances of IExec were passed to CliFleet)
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+	
+	/**
+	 * @return the CLI environment that executed the command (may be null if it could not be instantiated)
+	 */
+	public IExec getTarget()
+	{
+		return target;
+	}
+	
+	/**
+	 * @return command's output or null if execution failed
+	 */
+	public CliOutput getOutput()
+	{
+		return output;
+	}
+	
+	/**
+	 * @return the exception that caused the failure or null if execution was successful
+	 */
+	public CliException getError()
+	{
+		return error;
+	}
+	
+	/**
+	 * @return whether the command was executed successfully (note that its exit code is not checked)
+	 */
+	public boolean isSuccessful()
+	{
+		return ( null == error );
+	}
+}
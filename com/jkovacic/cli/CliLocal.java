@@ -16,15 +16,27 @@ limitations under the License.
 
 package com.jkovacic.cli;
 
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
 /**
 CliLocal executes external commands or programs and returns resulting output.
 
+Processes are started by ProcessBuilder. Besides a command, given as one line,
+a command may be specified by CliLocalCommand, including its exact argv, working
+directory, environment and redirections of its standard streams. Several commands
+may also be connected into a pipeline (see execPipeline()).
+
 @author Jernej Kovacic
 @see si.jkovacic.CliOutput
 */
 
 public final class CliLocal extends CliAb 
 {
+	// how long (in milliseconds) an aborted process may take to terminate before it is killed forcibly
+	private static final long DESTROY_GRACE_PERIOD = 2000L;
 
 	/*
 	    The only acceptable way to instantiate all implementations of IExec
@@ -39,43 +51,488 @@ public final class CliLocal extends CliAb
     Executes the command, given as a string. No environment parameters are passed to the external command.
     Hence the entire path to the external program must be given. 
     
+    Aborting the command via the handle (also when its deadline expires) destroys the process.
+    
     @param processor - a class that will process the command's outputs
     @param command, e.g. "/bin/iostat -En c0t2d0"
+    @param handle - a handle to abort the command (may be null)
     
     @return instance of CliOutput, containing exit code with results of stdout and stderr
     
-    @throws CliException if an error occurs while trying to execute the "command"
+    @throws CliException if an error occurs while trying to execute the "command" or it is aborted
   */
 
-	public CliOutput exec(ICliProcessor processor, String command) throws CliException 
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException 
 	{        
- 
-		CliOutput retVal = null;
-		
         if ( null == command || 0 == command.length() )
         {
         	// Nothing to execute, this is unexpected.
         	throw new CliException("Nothing to execute");
         }
         
+        return exec(processor, new CliLocalCommand(tokenize(command)), handle);
+	}
+	
+	/**
+	 * Asynchronously executes the command, given as a string (split into
+	 * arguments the same way as by exec(processor, command, handle)).
+	 * The process's exit is awaited without blocking any thread.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param executor - an executor that will process the command's outputs (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes with the results of the executed command
+	 */
+	public CompletableFuture<CliOutput> execAsync(ICliProcessor processor, String command, Executor executor)
+	{
+		if ( null == command || 0 == command.length() )
+		{
+			CompletableFuture<CliOutput> retVal = new CompletableFuture<CliOutput>();
+			retVal.completeExceptionally(new CliException("Nothing to execute"));
+			return retVal;
+		}
+		
+		return execAsync(processor, new CliLocalCommand(tokenize(command)), executor);
+	}
+	
+	/**
+	 * Executes a shell script by "/bin/sh". The script is passed
+	 * directly as an argument, so no quoting is necessary.
+	 * 
+	 * @param processor - a class that will process the script's outputs
+	 * @param script - a script to be executed
+	 * 
+	 * @return instance of CliOutput, containing exit code with results of stdout and stderr
+	 * 
+	 * @throws CliException if an error occurs while trying to execute the script
+	 */
+	protected CliOutput execScript(ICliProcessor processor, String script) throws CliException
+	{
+		return exec(processor, new CliLocalCommand("/bin/sh", "-c", script), null);
+	}
+	
+	/**
+	 * Executes a command, specified by its argv, working directory, environment
+	 * and redirections of its standard streams.
+	 * 
+	 * Aborting the command via the handle (also when its deadline expires) destroys the process.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - specification of the command
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return instance of CliOutput, containing exit code with results of stdout and stderr
+	 * 
+	 * @throws CliException if an error occurs while trying to execute the command or it is aborted
+	 */
+	public CliOutput exec(ICliProcessor processor, CliLocalCommand command, CliExecHandle handle) throws CliException
+	{
+		CliOutput retVal = null;
+		
+		if ( null==processor || null==command )
+		{
+			throw new CliException("Nothing to execute");
+		}
+		
+		final Process pr = start(command);
+		
         try
         {
-        	// Typical implementation for local execution of CLI commands
-            Runtime rt = Runtime.getRuntime();
-            Process pr = rt.exec(command);
+            if ( null != handle )
+            {
+            	handle.attach(new Runnable()
+            			{
+            				public void run()
+            				{
+            					terminate(pr);
+            				}
+            			});
+            }
             
-            // process outputs by the universal processing method
-            retVal = processor.process(pr.getOutputStream(), pr.getInputStream(), pr.getErrorStream());
-            // and assign the exit code
-            retVal.exitCode = pr.waitFor();      
+            try
+            {
+	            // process outputs by the universal processing method
+	            retVal = processor.process(pr.getOutputStream(), pr.getInputStream(), pr.getErrorStream());
+	            // and assign the exit code
+	            retVal.exitCode = pr.waitFor();
+            }
+            finally
+            {
+            	if ( null != handle )
+            	{
+            		handle.detach();
+            	}
+            }
         }
-        catch (Exception ex)
+        catch ( InterruptedException ex )
         {
-        	// TODO handle
-            throw new CliException(ex.getMessage());
+        	Thread.currentThread().interrupt();
+        	throw new CliException("Interrupted while waiting for the command to complete");
         }
+        
+        if ( null!=handle && true==handle.isAborted() )
+        {
+        	throw new CliException("Command execution aborted");
+        }
+        
+        return retVal;
+	}
+	
+	/**
+	 * Asynchronously executes a command, specified by its argv, working directory, 
+	 * environment and redirections of its standard streams.
+	 * 
+	 * The command's outputs are processed by the executor, while the process's exit
+	 * is awaited via ProcessHandle.onExit(), so no thread is blocked waiting for it.
+	 * When both stdout and stderr are redirected (to files or stderr merged into 
+	 * a redirected stdout), there is nothing to read and the processor is called 
+	 * immediately by the calling thread. This way a large number of concurrent 
+	 * commands can be supervised without any threads, dedicated to them.
+	 * 
+	 * Cancelling the returned future destroys the process.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - specification of the command
+	 * @param executor - an executor that will process the command's outputs (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes with the results of the executed command
+	 */
+	public CompletableFuture<CliOutput> execAsync(final ICliProcessor processor, CliLocalCommand command, Executor executor)
+	{
+		final CompletableFuture<CliOutput> retVal = new CompletableFuture<CliOutput>();
+		final Process pr;
+		
+		try
+		{
+			if ( null==processor || null==command )
+			{
+				throw new CliException("Nothing to execute");
+			}
+			
+			pr = start(command);
+		}
+		catch ( CliException ex )
+		{
+			retVal.completeExceptionally(ex);
+			return retVal;
+		}
+		
+		CompletableFuture<CliOutput> processed = null;
+		CliAsync.IOperation<CliOutput> processing = new CliAsync.IOperation<CliOutput>()
+				{
+					public CliOutput run() throws CliException
+					{
+						return processor.process(pr.getOutputStream(), pr.getInputStream(), pr.getErrorStream());
+					}
+				};
+		
+		if ( true == command.outputsRedirected() )
+		{
+			// nothing to read, the streams are empty
+			processed = new CompletableFuture<CliOutput>();
+			try
+			{
+				processed.complete(processing.run());
+			}
+			catch ( Exception ex )
+			{
+				processed.completeExceptionally(ex);
+			}
+		}
+		else
+		{
+			processed = CliAsync.run(processing, null, executor);
+		}
+		
+		// combine results of processing with the exit code, when both are available
+		processed.thenCombine(pr.onExit(), new BiFunction<CliOutput, Process, CliOutput>()
+				{
+					public CliOutput apply(CliOutput output, Process process)
+					{
+						output.exitCode = process.exitValue();
+						return output;
+					}
+				}).whenComplete(new BiConsumer<CliOutput, Throwable>()
+				{
+					public void accept(CliOutput output, Throwable th)
+					{
+						if ( null == th )
+						{
+							retVal.complete(output);
+						}
+						else
+						{
+							// processing failed, the process is not needed anymore
+							terminate(pr);
+							retVal.completeExceptionally( th instanceof CompletionException && null!=th.getCause() ? th.getCause() : th );
+						}
+					}
+				});
+		
+		// cancellation of the future destroys the process
+		retVal.whenComplete(new BiConsumer<CliOutput, Throwable>()
+				{
+					public void accept(CliOutput output, Throwable th)
+					{
+						if ( true == retVal.isCancelled() )
+						{
+							terminate(pr);
+						}
+					}
+				});
+		
+		return retVal;
+	}
+	
+	/**
+	 * Executes a pipeline of commands, e.g. "grep ERROR log | sort | uniq -c".
+	 * 
+	 * Stages are started by ProcessBuilder.startPipeline(), so stdout of each stage is
+	 * connected directly to stdin of the next one by an OS pipe and data between
+	 * stages are never copied by the JVM. The processor receives stdin of the first 
+	 * stage and stdout and stderr of the last one. Stderr of other stages is
+	 * drained concurrently, unless it is redirected or merged into stdout.
+	 * Stdout of any stage except the last one, and stdin of any stage except
+	 * the first one, must not be redirected.
+	 * 
+	 * Aborting the pipeline via the handle (also when its deadline expires) destroys all processes.
+	 * 
+	 * @param processor - a class that will process outputs of the last stage
+	 * @param stages - specifications of the pipeline's commands, in order
+	 * @param handle - a handle to abort the pipeline (may be null)
+	 * 
+	 * @return outputs of the last stage with exit codes of all stages
+	 * 
+	 * @throws CliException if an error occurs while trying to execute the pipeline or it is aborted
+	 */
+	public CliLocalPipelineOutput execPipeline(ICliProcessor processor, List<CliLocalCommand> stages, CliExecHandle handle) throws CliException
+	{
+		if ( null==processor || null==stages || 0==stages.size() )
+		{
+			throw new CliException("Nothing to execute");
+		}
+		
+		List<ProcessBuilder> builders = new ArrayList<ProcessBuilder>(stages.size());
+		for ( CliLocalCommand stage : stages )
+		{
+			if ( null == stage )
+			{
+				throw new CliException("Nothing to execute");
+			}
+			
+			builders.add(stage.toProcessBuilder());
+		}
+		
+		final List<Process> processes;
+		try
+		{
+			processes = ProcessBuilder.startPipeline(builders);
+		}
+		catch ( IllegalArgumentException ex )
+		{
+			throw new CliException("Invalid pipeline: " + ex.getMessage());
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("Could not start the pipeline: " + ex.getMessage());
+		}
+		
+		int last = processes.size() - 1;
+		Process lastProcess = processes.get(last);
+		
+		// stderr of stages except the last one
+		List<Future<CliCharLines>> pendingErr = new ArrayList<Future<CliCharLines>>(last);
+		for ( int i=0; i<last; i++ )
+		{
+			final InputStream errStream = processes.get(i).getErrorStream();
+			pendingErr.add(CliStreamDrainer.inBackground(new Callable<CliCharLines>()
+					{
+						public CliCharLines call() throws IOException
+						{
+							return CliCharLines.read(errStream);
+						}
+					}));
+		}
+		
+		CliOutput output = null;
+		int[] exitCodes = new int[processes.size()];
+		ICliLines[] errLines = new ICliLines[last];
+		boolean completed = false;
+		
+		try
+		{
+			if ( null != handle )
+			{
+				handle.attach(new Runnable()
+						{
+							public void run()
+							{
+								for ( Process pr : processes )
+								{
+									terminate(pr);
+								}
+							}
+						});
+			}
+			
+			try
+			{
+				output = processor.process(processes.get(0).getOutputStream(), lastProcess.getInputStream(), lastProcess.getErrorStream());
+				
+				for ( int i=0; i<=last; i++ )
+				{
+					exitCodes[i] = processes.get(i).waitFor();
+				}
+				
+				for ( int i=0; i<last; i++ )
+				{
+					errLines[i] = CliStreamDrainer.await(pendingErr.get(i));
+				}
+				
+				completed = true;
+			}
+			finally
+			{
+				if ( null != handle )
+				{
+					handle.detach();
+				}
+			}
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+			throw new CliException("Interrupted while waiting for the pipeline to complete");
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("IO error while reading stderr: " + ex.getMessage());
+		}
+		finally
+		{
+			// if anything failed, no stage may be left behind
+			if ( false == completed )
+			{
+				for ( Process pr : processes )
+				{
+					terminate(pr);
+				}
+			}
+		}
+		
+		if ( null!=handle && true==handle.isAborted() )
+		{
+			throw new CliException("Pipeline execution aborted");
+		}
+		
+		output.exitCode = exitCodes[last];
+		return new CliLocalPipelineOutput(output, exitCodes, errLines);
+	}
+	
+	/**
+	 * Executes a pipeline of commands. Outputs of the last stage
+	 * are processed by CliNonInteractive.
+	 * 
+	 * @param stages - specifications of the pipeline's commands, in order
+	 * 
+	 * @return outputs of the last stage with exit codes of all stages
+	 * 
+	 * @throws CliException if an error occurs while trying to execute the pipeline
+	 */
+	public CliLocalPipelineOutput execPipeline(List<CliLocalCommand> stages) throws CliException
+	{
+		return execPipeline(new CliNonInteractive(), stages, null);
+	}
+	
+	/*
+	 * Terminates a process and its descendants. They are requested to terminate 
+	 * gracefully (SIGTERM on UNIX) first. If any of them is still alive after a grace
+	 * period, it is killed forcibly (SIGKILL). The grace period is measured by the
+	 * shared timer, so the method does not block.
+	 * 
+	 * Descendants (e.g. commands, started by a shell) would otherwise survive
+	 * and keep the process's output pipes open.
+	 * 
+	 * @param pr - process to be terminated
+	 */
+	private static void terminate(final Process pr)
+	{
+		// listed before the process terminates, its orphans are not its descendants anymore
+		final List<ProcessHandle> descendants = new ArrayList<ProcessHandle>();
+		pr.descendants().forEach(new Consumer<ProcessHandle>()
+				{
+					public void accept(ProcessHandle ph)
+					{
+						descendants.add(ph);
+					}
+				});
+		
+		pr.destroy();
+		for ( ProcessHandle ph : descendants )
+		{
+			ph.destroy();
+		}
+		
+		CliAsync.schedule(new Runnable()
+				{
+					public void run()
+					{
+						if ( true == pr.isAlive() )
+						{
+							pr.destroyForcibly();
+						}
+						
+						for ( ProcessHandle ph : descendants )
+						{
+							if ( true == ph.isAlive() )
+							{
+								ph.destroyForcibly();
+							}
+						}
+					}
+				}, DESTROY_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+	}
+	
+	/*
+	 * Starts a process
+	 * 
+	 * @param command - specification of the command
+	 * 
+	 * @return the started process
+	 * 
+	 * @throws CliException if the process could not be started
+	 */
+	private static Process start(CliLocalCommand command) throws CliException
+	{
+		try
+		{
+			return command.toProcessBuilder().start();
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("Could not start the command: " + ex.getMessage());
+		}
+	}
+	
+	/*
+	 * Splits the command into arguments the same way as Runtime.exec(String) does,
+	 * i.e. at whitespace characters, without any special treatment of quotes.
+	 * 
+	 * @param command - full command, given as one line
+	 * 
+	 * @return array of the program and its arguments
+	 */
+	private static String[] tokenize(String command)
+	{
+        StringTokenizer st = new StringTokenizer(command);
+        String[] retVal = new String[st.countTokens()];
+        for ( int i=0; st.hasMoreTokens(); i++ )
+        {
+        	retVal[i] = st.nextToken();
+        }
+        
         return retVal;
-
 	}
 
 	/**
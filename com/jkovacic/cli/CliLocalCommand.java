@@ -0,0 +1,297 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A specification of a local command to be executed by CliLocal:
+ * the program and its arguments (argv), optional working directory,
+ * environment variables and redirections of the command's standard streams.
+ * 
+ * In contrast to a command, given as a single line, arguments are passed
+ * to the program exactly as given, i.e. they may contain spaces, quotes, etc.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliLocal
+ */
+public class CliLocalCommand 
+{
+	private List<String> argv = null;
+	private File directory = null;
+	private Map<String, String> environment = new LinkedHashMap<String, String>();
+	private boolean inheritEnvironment = true;
+	
+	private File inputFile = null;
+	private File outputFile = null;
+	private boolean appendOutput = false;
+	private File errorFile = null;
+	private boolean appendError = false;
+	private boolean mergeErrors = false;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param argv - the program and its arguments, e.g. {"/bin/ls", "-l", "/my dir"}
+	 */
+	public CliLocalCommand(String... argv)
+	{
+		this.argv = new ArrayList<String>(Arrays.asList(argv));
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param argv - the program and its arguments
+	 */
+	public CliLocalCommand(List<String> argv)
+	{
+		this.argv = new ArrayList<String>(argv);
+	}
+	
+	/**
+	 * @return the program and its arguments
+	 */
+	public List<String> getArgv()
+	{
+		return Collections.unmodifiableList(argv);
+	}
+	
+	/**
+	 * Sets the command's working directory
+	 * 
+	 * @param directory - working directory, null for the current directory of the JVM
+	 */
+	public void setDirectory(File directory)
+	{
+		this.directory = directory;
+	}
+	
+	/**
+	 * @return the command's working directory (null if not set)
+	 */
+	public File getDirectory()
+	{
+		return directory;
+	}
+	
+	/**
+	 * Sets an environment variable of the command
+	 * 
+	 * @param name - name of the variable
+	 * @param value - value of the variable, null to remove the variable from the environment
+	 */
+	public void setEnvironment(String name, String value)
+	{
+		environment.put(name, value);
+	}
+	
+	/**
+	 * @return environment variables, set by setEnvironment (null values denote removed variables)
+	 */
+	public Map<String, String> getEnvironment()
+	{
+		return Collections.unmodifiableMap(environment);
+	}
+	
+	/**
+	 * Sets whether the command inherits the environment of the JVM 
+	 * (default) or only gets variables, set by setEnvironment.
+	 * 
+	 * @param inherit - true/false
+	 */
+	public void setInheritEnvironment(boolean inherit)
+	{
+		this.inheritEnvironment = inherit;
+	}
+	
+	/**
+	 * @return whether the command inherits the environment of the JVM
+	 */
+	public boolean isInheritEnvironment()
+	{
+		return inheritEnvironment;
+	}
+	
+	/**
+	 * Redirects the command's stdin from a file.
+	 * The processor's stdin stream is not connected to the command in this case.
+	 * 
+	 * @param file - file to read stdin from, null for no redirection
+	 */
+	public void setInputFile(File file)
+	{
+		this.inputFile = file;
+	}
+	
+	/**
+	 * @return file the command's stdin is redirected from (null if not redirected)
+	 */
+	public File getInputFile()
+	{
+		return inputFile;
+	}
+	
+	/**
+	 * Redirects the command's stdout to a file.
+	 * The processor's stdout stream is empty in this case.
+	 * 
+	 * @param file - file to write stdout to, null for no redirection
+	 * @param append - whether to append to the file or to overwrite it
+	 */
+	public void setOutputFile(File file, boolean append)
+	{
+		this.outputFile = file;
+		this.appendOutput = append;
+	}
+	
+	/**
+	 * @return file the command's stdout is redirected to (null if not redirected)
+	 */
+	public File getOutputFile()
+	{
+		return outputFile;
+	}
+	
+	/**
+	 * @return whether stdout is appended to the file
+	 */
+	public boolean isAppendOutput()
+	{
+		return appendOutput;
+	}
+	
+	/**
+	 * Redirects the command's stderr to a file.
+	 * The processor's stderr stream is empty in this case.
+	 * Ignored if stderr is merged into stdout.
+	 * 
+	 * @param file - file to write stderr to, null for no redirection
+	 * @param append - whether to append to the file or to overwrite it
+	 */
+	public void setErrorFile(File file, boolean append)
+	{
+		this.errorFile = file;
+		this.appendError = append;
+	}
+	
+	/**
+	 * @return file the command's stderr is redirected to (null if not redirected)
+	 */
+	public File getErrorFile()
+	{
+		return errorFile;
+	}
+	
+	/**
+	 * @return whether stderr is appended to the file
+	 */
+	public boolean isAppendError()
+	{
+		return appendError;
+	}
+	
+	/**
+	 * Sets whether the command's stderr is merged into its stdout 
+	 * (like "2>&1"). The processor's stderr stream is empty in this case.
+	 * 
+	 * @param merge - true/false
+	 */
+	public void setMergeErrors(boolean merge)
+	{
+		this.mergeErrors = merge;
+	}
+	
+	/**
+	 * @return whether stderr is merged into stdout
+	 */
+	public boolean isMergeErrors()
+	{
+		return mergeErrors;
+	}
+	
+	/*
+	 * Are both output streams redirected, i.e. is there nothing for a processor to read?
+	 */
+	boolean outputsRedirected()
+	{
+		return ( null!=outputFile && (true==mergeErrors || null!=errorFile) );
+	}
+	
+	/*
+	 * Creates a ProcessBuilder according to the specification
+	 * 
+	 * @return an instance of ProcessBuilder
+	 * 
+	 * @throws CliException if no program is specified
+	 */
+	ProcessBuilder toProcessBuilder() throws CliException
+	{
+		if ( true==argv.isEmpty() || null==argv.get(0) || 0==argv.get(0).length() )
+		{
+			throw new CliException("Nothing to execute");
+		}
+		
+		ProcessBuilder pb = new ProcessBuilder(argv);
+		pb.directory(directory);
+		
+		Map<String, String> env = pb.environment();
+		if ( false == inheritEnvironment )
+		{
+			env.clear();
+		}
+		
+		for ( Map.Entry<String, String> var : environment.entrySet() )
+		{
+			if ( null == var.getValue() )
+			{
+				env.remove(var.getKey());
+			}
+			else
+			{
+				env.put(var.getKey(), var.getValue());
+			}
+		}
+		
+		if ( null != inputFile )
+		{
+			pb.redirectInput(inputFile);
+		}
+		
+		if ( null != outputFile )
+		{
+			pb.redirectOutput( true==appendOutput ? 
+					ProcessBuilder.Redirect.appendTo(outputFile) : 
+					ProcessBuilder.Redirect.to(outputFile) );
+		}
+		
+		if ( true == mergeErrors )
+		{
+			pb.redirectErrorStream(true);
+		}
+		else if ( null != errorFile )
+		{
+			pb.redirectError( true==appendError ? 
+					ProcessBuilder.Redirect.appendTo(errorFile) : 
+					ProcessBuilder.Redirect.to(errorFile) );
+		}
+		
+		return pb;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+/**
+ * Results of a local pipeline, executed by CliLocal.execPipeline().
+ * 
+ * Outputs of the last stage are available as a CliOutput (as returned
+ * by the processor), while exit codes and stderr lines are available
+ * for each stage separately.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliLocal
+ */
+public class CliLocalPipelineOutput 
+{
+	// outputs of the last stage, its exitCode is the last stage's exit code
+	private CliOutput output;
+	
+	// exit codes of all stages
+	private int[] exitCodes;
+	
+	// stderr of all stages except the last one (its stderr is passed to the processor)
+	private ICliLines[] errLines;
+	
+	/*
+	 * Constructor, only called by CliLocal
+	 */
+	CliLocalPipelineOutput(CliOutput output, int[] exitCodes, ICliLines[] errLines)
+	{
+		this.output = output;
+		this.exitCodes = exitCodes;
+		this.errLines = errLines;
+	}
+	
+	/**
+	 * @return outputs of the last stage, as returned by the processor
+	 */
+	public CliOutput getOutput()
+	{
+		return output;
+	}
+	
+	/**
+	 * @return number of stages
+	 */
+	public int getStageCount()
+	{
+		return exitCodes.length;
+	}
+	
+	/**
+	 * @param stage - index of the stage (0 is the first one)
+	 * 
+	 * @return exit code of the stage
+	 */
+	public int getExitCode(int stage)
+	{
+		return exitCodes[stage];
+	}
+	
+	/**
+	 * Stderr of the last stage is processed by the processor and
+	 * is available via getOutput().
+	 * 
+	 * @param stage - index of the stage (0 is the first one)
+	 * 
+	 * @return lines of the stage's stderr (empty if it was redirected or merged into stdout)
+	 */
+	public ICliLines getErrLines(int stage)
+	{
+		return ( stage < errLines.length ? errLines[stage] : null );
+	}
+	
+	/**
+	 * @return true if all stages exited with the exit code 0 (like "set -o pipefail" in bash)
+	 */
+	public boolean isSuccessful()
+	{
+		for ( int code : exitCodes )
+		{
+			if ( 0 != code )
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
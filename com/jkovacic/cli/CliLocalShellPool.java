@@ -0,0 +1,209 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A class implementing local command execution via a pool of pre-started
+ * shells (coprocesses).
+ * 
+ * Execution of a short local command is dominated by starting a new process
+ * (and often a shell that interprets the command). This class starts several
+ * long-lived shells (by default "/bin/sh") when prepare() is called and sends 
+ * each command to the shell with the fewest pending commands. Outputs of commands 
+ * are framed by sentinel markers (see CliPersistentShell), so no process is
+ * started for a command, unless the command itself starts external programs.
+ * 
+ * Commands are interpreted by shells, so quoting, redirections, pipes etc.
+ * are supported (in contrast to CliLocal.exec(String)). Note that changes of
+ * a shell's state (e.g. current directory) only affect commands, executed
+ * later by the same shell, so commands should not rely on them. A shell, 
+ * terminated by a command (e.g. 'exit'), is restarted by the next exec.
+ * 
+ * The class is thread safe.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliPersistentShell
+ */
+public final class CliLocalShellPool extends CliAb
+{
+	/** Default number of shells in the pool */
+	public static final int DEFAULT_SIZE = 4;
+	
+	// pooled shells
+	private CliPersistentShell[] shells;
+	// number of pending commands per shell
+	private AtomicInteger[] load;
+	// the command starting a shell
+	private String shell;
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param size - number of shells in the pool
+	 * @param shell - command that starts a shell
+	 */
+	CliLocalShellPool(int size, String shell)
+	{
+		this.shell = shell;
+		this.shells = new CliPersistentShell[size];
+		this.load = new AtomicInteger[size];
+		
+		for ( int i=0; i<size; i++ )
+		{
+			shells[i] = new CliPersistentShell(CliLocal.getInstance(), shell);
+			load[i] = new AtomicInteger(0);
+		}
+	}
+	
+	/**
+	 * Executes a command by the least loaded shell of the pool.
+	 * 
+	 * Aborting the command via the handle (or exceeding its deadline) terminates
+	 * the whole shell that executes it (see CliPersistentShell), so pending commands
+	 * of other threads, sent to the same shell, fail as well. Hence a timeout of one
+	 * caller's command may fail unrelated callers' commands. The shell is restarted
+	 * by the next exec.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command, terminating its shell (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws CliException when execution fails for any reason
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException
+	{
+		int idx = leastLoaded();
+		CliPersistentShell sh = shells[idx];
+		
+		// restart the shell if it has terminated
+		if ( false == sh.sessionActive() )
+		{
+			synchronized(sh)
+			{
+				if ( false == sh.sessionActive() )
+				{
+					sh.cleanup();
+					sh.prepare();
+				}
+			}
+		}
+		
+		load[idx].incrementAndGet();
+		try
+		{
+			return sh.exec(processor, command, handle);
+		}
+		finally
+		{
+			load[idx].decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * Starts all shells of the pool.
+	 * 
+	 * @throws CliException if any shell could not be started
+	 */
+	public void prepare() throws CliException
+	{
+		for ( CliPersistentShell sh : shells )
+		{
+			synchronized(sh)
+			{
+				sh.prepare();
+			}
+		}
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * Terminates all shells of the pool.
+	 * 
+	 * @throws CliException if anything fails
+	 */
+	public void cleanup() throws CliException
+	{
+		for ( CliPersistentShell sh : shells )
+		{
+			synchronized(sh)
+			{
+				sh.cleanup();
+			}
+		}
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * 
+	 * @return whether any shell of the pool is running
+	 */
+	public boolean sessionActive()
+	{
+		for ( CliPersistentShell sh : shells )
+		{
+			if ( true == sh.sessionActive() )
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return number of shells in the pool
+	 */
+	public int getSize()
+	{
+		return shells.length;
+	}
+	
+	/**
+	 * @return the command that starts each shell
+	 */
+	public String getShell()
+	{
+		return shell;
+	}
+	
+	/*
+	 * @return index of the shell with the fewest pending commands
+	 */
+	private int leastLoaded()
+	{
+		int retVal = 0;
+		int min = Integer.MAX_VALUE;
+		
+		for ( int i=0; i<load.length; i++ )
+		{
+			int l = load[i].get();
+			if ( l < min )
+			{
+				min = l;
+				retVal = i;
+			}
+		}
+		
+		return retVal;
+	}
+}
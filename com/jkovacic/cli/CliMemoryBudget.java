@@ -0,0 +1,384 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A process-wide budget of memory (in bytes), occupied by outputs
+ * of commands while they are being processed.
+ * 
+ * Per-command capture limits (see CliCapturePolicy) do not prevent thousands
+ * of concurrently executing commands from exhausting the heap together.
+ * When a budget is set, buffering processors (CliNonInteractive, 
+ * CliNonInteractiveCompact and CliCapture with the policy all()) reserve 
+ * memory from the global budget before each read from a command's output stream.
+ * As read bytes are decoded into characters (two bytes each), a reservation
+ * accounts for FOOTPRINT_FACTOR times the number of read bytes.
+ * When the budget is exhausted, reading is postponed until other commands
+ * complete and their memory is released. As nothing is read from the stream
+ * meanwhile, the sender is slowed down by flow control (the SSH channel window 
+ * or the TCP receive window fill up).
+ * 
+ * An exception are transports that drain outputs into their own buffers 
+ * before they are processed. GanymedSSH2's drainer buffers (outside the budget)
+ * up to 1 MiB per stream, only then the channel window closes.
+ * 
+ * If all memory is held by commands that are themselves waiting for more,
+ * none of them could ever complete. To prevent such a deadlock, a reservation
+ * fails (and the command's processing with a CliException) if the memory does
+ * not become available within the acquire timeout.
+ * 
+ * Memory is released when processing of a command completes, i.e. the 
+ * returned CliOutput is owned (and accounted for) by the application.
+ * 
+ * By default the global budget is unlimited and only usage is measured.
+ * 
+ * @author Jernej Kovacic
+ */
+public final class CliMemoryBudget 
+{
+	/** Capacity, denoting an unlimited budget */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+	
+	/** Default timeout (in milliseconds) for a reservation when the budget is exhausted */
+	public static final long DEFAULT_ACQUIRE_TIMEOUT = 30000L;
+	
+	/** Number of reserved bytes per read byte, as each is decoded into a (two byte) char */
+	public static final int FOOTPRINT_FACTOR = 2;
+	
+	// the process-wide budget
+	private static final CliMemoryBudget global = new CliMemoryBudget(UNLIMITED, DEFAULT_ACQUIRE_TIMEOUT);
+	
+	private volatile long capacity;
+	private volatile long acquireTimeout;
+	
+	// metrics
+	private AtomicLong used = new AtomicLong(0);
+	private AtomicLong peak = new AtomicLong(0);
+	private AtomicLong waits = new AtomicLong(0);
+	private AtomicLong exhaustions = new AtomicLong(0);
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity - maximum number of bytes that may be reserved at the same time (UNLIMITED for no limit)
+	 * @param acquireTimeout - how long (in milliseconds) a reservation waits for memory to become available
+	 */
+	public CliMemoryBudget(long capacity, long acquireTimeout)
+	{
+		this.capacity = ( capacity<=0 ? UNLIMITED : capacity );
+		this.acquireTimeout = acquireTimeout;
+	}
+	
+	/**
+	 * @return the process-wide budget, used by CLI processors
+	 */
+	public static CliMemoryBudget getGlobal()
+	{
+		return global;
+	}
+	
+	/**
+	 * Sets the budget's capacity. Already reserved memory is not affected.
+	 * 
+	 * @param capacity - maximum number of bytes that may be reserved at the same time (UNLIMITED or non positive for no limit)
+	 */
+	public void setCapacity(long capacity)
+	{
+		this.capacity = ( capacity<=0 ? UNLIMITED : capacity );
+		
+		synchronized(this)
+		{
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * @return maximum number of bytes that may be reserved at the same time
+	 */
+	public long getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * @param timeout - how long (in milliseconds) a reservation waits for memory to become available
+	 */
+	public void setAcquireTimeout(long timeout)
+	{
+		this.acquireTimeout = timeout;
+	}
+	
+	/**
+	 * @return how long (in milliseconds) a reservation waits for memory to become available
+	 */
+	public long getAcquireTimeout()
+	{
+		return acquireTimeout;
+	}
+	
+	/**
+	 * Reserves memory, waiting (at most the acquire timeout) if the budget is exhausted.
+	 * 
+	 * @param bytes - number of bytes to reserve (reservations larger than the capacity are reduced to it)
+	 * 
+	 * @return the actually reserved number of bytes, to be passed to release()
+	 * 
+	 * @throws CliException if the memory did not become available in time or the thread was interrupted
+	 */
+	public long acquire(long bytes) throws CliException
+	{
+		long cap = capacity;
+		
+		if ( UNLIMITED == cap )
+		{
+			updatePeak(used.addAndGet(bytes));
+			return bytes;
+		}
+		
+		long n = Math.min(bytes, cap);
+		
+		synchronized(this)
+		{
+			long deadline = System.currentTimeMillis() + acquireTimeout;
+			boolean waited = false;
+			
+			while ( used.get()+n > capacity )
+			{
+				long toWait = deadline - System.currentTimeMillis();
+				if ( toWait <= 0 )
+				{
+					exhaustions.incrementAndGet();
+					throw new CliException("Output memory budget exhausted");
+				}
+				
+				if ( false == waited )
+				{
+					waits.incrementAndGet();
+					waited = true;
+				}
+				
+				try
+				{
+					wait(toWait);
+				}
+				catch ( InterruptedException ex )
+				{
+					Thread.currentThread().interrupt();
+					throw new CliException("Interrupted while waiting for output memory");
+				}
+			}
+			
+			updatePeak(used.addAndGet(n));
+		}
+		
+		return n;
+	}
+	
+	/**
+	 * Releases reserved memory
+	 * 
+	 * @param bytes - number of bytes to release, as returned by acquire()
+	 */
+	public void release(long bytes)
+	{
+		used.addAndGet(-bytes);
+		
+		if ( UNLIMITED != capacity )
+		{
+			synchronized(this)
+			{
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * @return number of currently reserved bytes
+	 */
+	public long getUsed()
+	{
+		return used.get();
+	}
+	
+	/**
+	 * @return the highest number of bytes reserved at the same time
+	 */
+	public long getPeak()
+	{
+		return peak.get();
+	}
+	
+	/**
+	 * @return number of reservations that had to wait for memory
+	 */
+	public long getWaitCount()
+	{
+		return waits.get();
+	}
+	
+	/**
+	 * @return number of reservations that failed because memory did not become available in time
+	 */
+	public long getExhaustionCount()
+	{
+		return exhaustions.get();
+	}
+	
+	/*
+	 * Updates the peak usage
+	 */
+	private void updatePeak(long current)
+	{
+		long p;
+		while ( current > (p = peak.get()) )
+		{
+			if ( true == peak.compareAndSet(p, current) )
+			{
+				break;
+			}
+		}
+	}
+	
+	/*
+	 * Creates a lease, i.e. memory reserved for a single command
+	 * 
+	 * @return a new lease
+	 */
+	Lease lease()
+	{
+		return new Lease(this);
+	}
+	
+	/*
+	 * Memory, reserved for a single command's outputs. Streams, wrapped by
+	 * the lease, reserve memory before each read. All memory is released at once
+	 * when the command's processing completes.
+	 */
+	static final class Lease
+	{
+		private CliMemoryBudget budget;
+		private AtomicLong held = new AtomicLong(0);
+		// set when a reservation has failed
+		private volatile boolean failed = false;
+		
+		private Lease(CliMemoryBudget budget)
+		{
+			this.budget = budget;
+		}
+		
+		/*
+		 * Wraps a stream, so its reads are accounted for by the lease
+		 */
+		InputStream wrap(InputStream stream)
+		{
+			return new BudgetedInputStream(stream, this);
+		}
+		
+		/*
+		 * Releases all memory, held by the lease
+		 */
+		void release()
+		{
+			budget.release(held.getAndSet(0));
+		}
+	}
+	
+	/*
+	 * A stream that reserves memory (FOOTPRINT_FACTOR bytes per byte) before each read.
+	 * The reservation is reduced to the actually read number of bytes afterwards.
+	 */
+	private static final class BudgetedInputStream extends FilterInputStream
+	{
+		private Lease lease;
+		
+		BudgetedInputStream(InputStream stream, Lease lease)
+		{
+			super(stream);
+			this.lease = lease;
+		}
+		
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return ( n<=0 ? -1 : (b[0] & 0xff) );
+		}
+		
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if ( 0 == len )
+			{
+				return 0;
+			}
+			
+			long reserved = 0;
+			
+			try
+			{
+				if ( true == lease.failed )
+				{
+					throw new CliException("Output memory budget exhausted");
+				}
+				
+				reserved = lease.budget.acquire((long) len * FOOTPRINT_FACTOR);
+			}
+			catch ( CliException ex )
+			{
+				/*
+				 * Nothing will be read from this stream (nor the other stream of the same 
+				 * command) anymore. The stream is closed, so the command does not block
+				 * forever on a full pipe or channel and the other stream reaches its end.
+				 */
+				lease.failed = true;
+				try
+				{
+					in.close();
+				}
+				catch ( IOException ioex )
+				{
+					// nothing to do, the failure is reported anyway
+				}
+				
+				throw new IOException(ex.getMessage());
+			}
+			
+			int n = -1;
+			try
+			{
+				// the reservation may have been reduced to the budget's capacity
+				n = in.read(b, off, (int) Math.max(1, Math.min(len, reserved/FOOTPRINT_FACTOR)));
+			}
+			finally
+			{
+				long keep = Math.min(reserved, (long) Math.max(n, 0) * FOOTPRINT_FACTOR);
+				lease.held.addAndGet(keep);
+				lease.budget.release(reserved - keep);
+			}
+			
+			return n;
+		}
+		
+		public long skip(long n) throws IOException
+		{
+			// skipped bytes are not buffered, no reservation is necessary
+			return in.skip(n);
+		}
+	}
+}
@@ -17,12 +17,22 @@ limitations under the License.
 package com.jkovacic.cli;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
  /**
   * Implementation of ICliProcessor that handles non-interactive
   * command execution, i.e. stdin is ignored and the entire output
   * (from stdout and stderr) is packed into CliOutput. 
   * 
+  * Stdout and stderr are drained concurrently, so a command, filling
+  * any of its output pipes, never stalls. This applies to all CLI
+  * implementations (local, SSH, rexec, rsh) as they all pass their
+  * streams to an ICliProcessor.
+  * 
+  * Buffered output is accounted for by the global memory budget
+  * (see CliMemoryBudget).
+  * 
   * @author Jernej Kovacic
   */
 
@@ -57,75 +67,92 @@ public class CliNonInteractive implements ICliProcessor
 			   throw new CliException("Output streams not provided");
 		   }
 		   
-			StringBuilder out = new StringBuilder("");
-	        StringBuilder err = new StringBuilder("");
-	        CliOutput retOutput = new CliOutput();
-	        
-	        BufferedReader stdout = new BufferedReader(new InputStreamReader(stdoutStream));
-	        BufferedReader stderr = new BufferedReader(new InputStreamReader(stderrStream));
-	        String outLine = null;
-	        String errLine = null;
-	        boolean firstOut = true;
-	        boolean firstErr = true;
+		   CliOutput retOutput = new CliOutput();
+		   
+		   /*
+		    * Both streams must be drained simultaneously. If the command fills
+		    * the stderr pipe while stdout is being read (or vice versa), it
+		    * would block and never close the other stream.
+		    * Hence stderr is drained by a pooled thread while the calling
+		    * thread drains stdout.
+		    */
+		   LineCollector collector = new LineCollector();
+		   
+		   // buffered output is accounted for by the global memory budget
+		   CliMemoryBudget.Lease lease = CliMemoryBudget.getGlobal().lease();
+		   Future<Void> pendingErr = CliStreamDrainer.drainInBackground(lease.wrap(stderrStream), collector, true);
+		   
+		   try
+		   {
+			   try
+			   {
+				   CliStreamDrainer.drain(lease.wrap(stdoutStream), collector, false);
+			   }
+			   finally
+			   {
+				   // wait for stderr in any case, so its thread is released ASAP
+				   CliStreamDrainer.await(pendingErr);
+			   }
+		   }
+		   catch ( IOException ex )
+		   {
+			   throw new CliException("IO error while parsing stdout or stderr: " + ex.getMessage());
+		   }
+		   finally
+		   {
+			   lease.release();
+		   }
+		   
+		   retOutput.outStr = toLines(collector.out);
+		   retOutput.errStr = toLines(collector.err);
+		   
+		   return retOutput;
+	   }
 	   
-	        // OS specific line separators will be inserted among returned lines from stdout or stderr. 
-	        // At the end both strings will be split into arrays.
-	        // Alternatively both inputs could be stored into ArrayLists...
-	          
-	        try
-	        {
-	        	// get input from any stream...
-		        while ( (outLine = stdout.readLine()) != null || (errLine = stderr.readLine() ) != null ) 
-		        {
-		            if ( outLine != null )
-		            {
-		                if ( false == firstOut )
-		                {
-		                    out.append(EOL);
-		                }
-		                else
-		                {
-		                    firstOut = false;
-		                }
-		                out.append(outLine);
-		            }
-		            if ( errLine != null )
-		            {
-		                if ( false == firstErr )
-		                {
-		                    err.append(EOL);
-		                }
-		                else
-		                {
-		                    firstErr = false;
-		                }
-		                err.append(errLine);
-		            }
-		        }  // while
-		
-		        if ( null != out && out.length()>0 )
-		        {
-		        	retOutput.outStr = out.toString().split(EOL);
-		        }
-		        else
-		        {
-		        	retOutput.outStr = null;
-		        }
-		        
-		        if ( null != err && err.length()>0 )
-		        {
-		        	retOutput.errStr = err.toString().split(EOL);
-		        }
-		        else
-		        {
-		        	retOutput.errStr = null;
-		        }
-	        }
-	        catch ( IOException ex )
-	        {
-	        	throw new CliException("IO error while parsing stdout or stderr");
-	        }
-	        
-	        return retOutput;
+	   /*
+	    * Converts a list of lines into an array the same way as joining them
+	    * with EOL and splitting the result would: trailing empty lines are omitted,
+	    * null is returned if there is no output at all (or a single empty line) and
+	    * an empty array if the output only consists of several empty lines.
+	    * 
+	    * @param lines - list of lines
+	    * 
+	    * @return array of lines or null
+	    */
+	   private static String[] toLines(List<String> lines)
+	   {
+		   int len = lines.size();
+		   
+		   if ( 0==len || (1==len && 0==lines.get(0).length()) )
+		   {
+			   return null;
+		   }
+		   
+		   while ( len>0 && 0==lines.get(len-1).length() )
+		   {
+			   len--;
+		   }
+		   
+		   return lines.subList(0, len).toArray(new String[len]);
+	   }
+	   
+	   /*
+	    * Stores lines of both streams into separate lists. Each list
+	    * is only accessed by the thread, draining its stream.
+	    */
+	   private static final class LineCollector implements ICliLineListener
+	   {
+		   final List<String> out = new ArrayList<String>();
+		   final List<String> err = new ArrayList<String>();
+		   
+		   public void stdoutLine(String line)
+		   {
+			   out.add(line);
+		   }
+		   
+		   public void stderrLine(String line)
+		   {
+			   err.add(line);
+		   }
 	   }
 }
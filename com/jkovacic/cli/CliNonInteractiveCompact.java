@@ -0,0 +1,106 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Implementation of ICliProcessor that handles non-interactive command
+ * execution just like CliNonInteractive, but stores the output compactly:
+ * all characters of each stream in one array plus an array of line offsets.
+ * Individual lines are only decoded on request.
+ * 
+ * Note that outStr and errStr of the returned CliOutput are not populated
+ * until getOut() or getErr() is called. Use getOutLine(), getOutLineCount()
+ * etc. to access lines without decoding all of them.
+ * 
+ * Trailing empty lines are omitted like by CliNonInteractive, with one difference:
+ * if a stream only consists of empty lines, getOut() (or getErr()) returns null,
+ * whereas CliNonInteractive returns an empty array when there are several of them.
+ * In both cases, getOutLineCount() (or getErrLineCount()) returns 0.
+ * 
+ * Buffered output is accounted for by the global memory budget
+ * (see CliMemoryBudget).
+ * 
+ * Like CliNonInteractive, the class is not stateful and one instance
+ * can be reused for an unlimited number of commands.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliNonInteractive, ICliLines
+ */
+public class CliNonInteractiveCompact implements ICliProcessor 
+{
+	/**
+	 * Reads commands output data (from stdout and stderr) and packs it into CliOutput in a compact form 
+	 *
+	 * @param stdinStream - OutputStream of stdin (ignored in this class, only declared because of the interface)
+	 * @param stdoutStream - InputStream of stdout
+	 * @param stderrStream - InputStream of stderr
+	 * 
+	 * @return an instance of CliOutput with processed results
+	 * 
+	 * @throws CliException when an error occurs
+	 */
+	public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException 
+	{
+		// check of input parameters
+		if ( null==stdoutStream || null==stderrStream )
+		{
+			throw new CliException("Output streams not provided");
+		}
+		
+		CliOutput retOutput = new CliOutput();
+		
+		// buffered output is accounted for by the global memory budget
+		CliMemoryBudget.Lease lease = CliMemoryBudget.getGlobal().lease();
+		
+		// stderr is drained by a pooled thread, stdout by the calling one
+		final InputStream errStream = lease.wrap(stderrStream);
+		Future<CliCharLines> pendingErr = CliStreamDrainer.inBackground(
+				new Callable<CliCharLines>()
+				{
+					public CliCharLines call() throws IOException
+					{
+						return CliCharLines.read(errStream);
+					}
+				});
+		
+		try
+		{
+			try
+			{
+				retOutput.setOutLines(CliCharLines.read(lease.wrap(stdoutStream)));
+			}
+			finally
+			{
+				retOutput.setErrLines(CliStreamDrainer.await(pendingErr));
+			}
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("IO error while parsing stdout or stderr: " + ex.getMessage());
+		}
+		finally
+		{
+			lease.release();
+		}
+		
+		return retOutput;
+	}
+}
@@ -25,6 +25,10 @@ package com.jkovacic.cli;
 * Typically all three properties are needed by the calling methods immediately after the external command is executed.
 * Hence there is no need to hide the properties and all three are public. Get-methods are also available but are actually redundant.
 * 
+* Some processors (e.g. CliNonInteractiveCompact) store the output compactly as ICliLines.
+* In this case outStr and errStr are only populated when getOut() or getErr() is called.
+* Individual lines can be accessed without decoding all of them by getOutLine(), getErrLine() etc.
+* 
 * Note: one should not rely on determining of the command's success from the exit code. It is not supported
 * by all CLI implementations. In such a case, EXITCODE_NOT_SET is set.
 * It is a much better idea to process returned output streams and make any conclusions on their basis. 
@@ -56,6 +60,22 @@ public class CliOutput
     */
     public String[] errStr;
     
+    /**
+     Set when the command did not complete before its deadline and was aborted.
+     Exit code and outputs are not available in this case.
+    */
+    public boolean timedOut;
+    
+    // compactly stored lines of stdout and stderr (if provided by the processor)
+    private ICliLines outLines;
+    private ICliLines errLines;
+    
+    // amount of output, discarded by a capture policy (see CliCapture)
+    private long outDroppedBytes = 0;
+    private long outDroppedLines = 0;
+    private long errDroppedBytes = 0;
+    private long errDroppedLines = 0;
+    
     /**
      Constructor
     */
@@ -63,7 +83,10 @@ public class CliOutput
     {
         outStr = null;
         errStr = null;
+        outLines = null;
+        errLines = null;
         exitCode = EXITCODE_NOT_SET;
+        timedOut = false;
     }
 
     /**
@@ -77,6 +100,26 @@ public class CliOutput
     	return ( EXITCODE_NOT_SET != exitCode );
     }
     
+    /**
+     @return value of timedOut
+    */
+    public boolean isTimedOut()
+    {
+        return timedOut;
+    }
+    
+    /**
+     * Creates an instance, marked as timed out
+     * 
+     * @return an instance of CliOutput with timedOut set
+     */
+    public static CliOutput timedOutResult()
+    {
+        CliOutput retVal = new CliOutput();
+        retVal.timedOut = true;
+        return retVal;
+    }
+    
     /**
      @return value of exitCode
     */
@@ -86,19 +129,190 @@ public class CliOutput
     }
 
     /**
-     @return reference to outStr 
+     @return reference to outStr (decoded from compactly stored lines if necessary);
+             compactly stored lines, consisting only of empty lines, are returned as null
     */
     public String[] getOut()
     {
+        if ( null==outStr && null!=outLines && outLines.count()>0 )
+        {
+            outStr = outLines.toArray();
+        }
+        
         return outStr;
     }
 
     /** 
-     @return reference to errStr
+     @return reference to errStr (decoded from compactly stored lines if necessary);
+             compactly stored lines, consisting only of empty lines, are returned as null
     */
     public String[] getErr()
     {
+        if ( null==errStr && null!=errLines && errLines.count()>0 )
+        {
+            errStr = errLines.toArray();
+        }
+        
         return errStr;
     }
+    
+    /**
+     * @return number of lines returned by stdout
+     */
+    public int getOutLineCount()
+    {
+        return lineCount(outStr, outLines);
+    }
+    
+    /**
+     * @return number of lines returned by stderr
+     */
+    public int getErrLineCount()
+    {
+        return lineCount(errStr, errLines);
+    }
+    
+    /**
+     * Returns a single line of stdout. If the output is stored compactly,
+     * only this line is decoded.
+     * 
+     * @param index - index of the line (between 0 and getOutLineCount()-1)
+     * 
+     * @return the requested line
+     * 
+     * @throws IndexOutOfBoundsException if index is out of range
+     */
+    public String getOutLine(int index)
+    {
+        return line(outStr, outLines, index);
+    }
+    
+    /**
+     * Returns a single line of stderr. If the output is stored compactly,
+     * only this line is decoded.
+     * 
+     * @param index - index of the line (between 0 and getErrLineCount()-1)
+     * 
+     * @return the requested line
+     * 
+     * @throws IndexOutOfBoundsException if index is out of range
+     */
+    public String getErrLine(int index)
+    {
+        return line(errStr, errLines, index);
+    }
+    
+    /**
+     * Assigns compactly stored lines of stdout. Typically called by 
+     * implementations of ICliProcessor. Resets outStr.
+     * 
+     * @param lines - lines of stdout
+     */
+    public void setOutLines(ICliLines lines)
+    {
+        outLines = lines;
+        outStr = null;
+    }
+    
+    /**
+     * Assigns compactly stored lines of stderr. Typically called by 
+     * implementations of ICliProcessor. Resets errStr.
+     * 
+     * @param lines - lines of stderr
+     */
+    public void setErrLines(ICliLines lines)
+    {
+        errLines = lines;
+        errStr = null;
+    }
+    
+    /*
+     * Number of lines, either from the array (if populated) or compactly stored lines
+     */
+    private static int lineCount(String[] str, ICliLines lines)
+    {
+        if ( null != str )
+        {
+            return str.length;
+        }
+        
+        return ( null==lines ? 0 : lines.count() );
+    }
+    
+    /*
+     * A line, either from the array (if populated) or compactly stored lines
+     */
+    private static String line(String[] str, ICliLines lines, int index)
+    {
+        if ( null != str )
+        {
+            return str[index];
+        }
+        
+        if ( null == lines )
+        {
+            throw new IndexOutOfBoundsException("No lines available");
+        }
+        
+        return lines.get(index);
+    }
 
+    
+    /**
+     * @return whether any output was discarded by a capture policy
+     */
+    public boolean isTruncated()
+    {
+        return ( outDroppedBytes>0 || errDroppedBytes>0 );
+    }
+    
+    /**
+     * @return number of bytes of stdout, discarded by a capture policy
+     */
+    public long getOutDroppedBytes()
+    {
+        return outDroppedBytes;
+    }
+    
+    /**
+     * @return number of lines of stdout, discarded by a capture policy (a partially kept line is also counted)
+     */
+    public long getOutDroppedLines()
+    {
+        return outDroppedLines;
+    }
+    
+    /**
+     * @return number of bytes of stderr, discarded by a capture policy
+     */
+    public long getErrDroppedBytes()
+    {
+        return errDroppedBytes;
+    }
+    
+    /**
+     * @return number of lines of stderr, discarded by a capture policy (a partially kept line is also counted)
+     */
+    public long getErrDroppedLines()
+    {
+        return errDroppedLines;
+    }
+    
+    /*
+     * Sets the amount of discarded stdout
+     */
+    void setOutDropped(long bytes, long lines)
+    {
+        outDroppedBytes = bytes;
+        outDroppedLines = lines;
+    }
+    
+    /*
+     * Sets the amount of discarded stderr
+     */
+    void setErrDropped(long bytes, long lines)
+    {
+        errDroppedBytes = bytes;
+        errDroppedLines = lines;
+    }
 }
@@ -0,0 +1,534 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A class implementing command execution via a persistent shell.
+ * 
+ * Each exec over SSH, rexec, etc. starts a new remote process (typically
+ * also a new login shell), which is relatively expensive when many short
+ * commands are executed on the same host. This class starts a single shell 
+ * (by default "/bin/sh") over any other IExec implementation (the transport)
+ * when prepare() is called and sends all commands to its stdin. Each command
+ * is framed by sentinel markers, so its stdout, stderr and exit code are 
+ * demultiplexed from the shell's outputs (see CliShellFraming).
+ * 
+ * exec() may be called by several threads concurrently. Commands are executed
+ * by the shell one after another in the order they were sent, but a thread does
+ * not have to wait for results of other commands to send its own command,
+ * so round trips of commands overlap.
+ * 
+ * Outputs of each command are captured and passed to the command's 
+ * ICliProcessor when the command completes. Hence processors cannot
+ * interact with commands; stdin of each command is redirected from /dev/null.
+ * 
+ * Commands are executed in the same shell, so changes of its state (e.g. current
+ * directory, variables) are visible to subsequent commands. A command that terminates
+ * the shell (e.g. 'exit') causes all pending commands to fail; call prepare() 
+ * to start a new shell.
+ * 
+ * A running command cannot be stopped without stopping the shell, and all subsequent
+ * commands would queue behind it. Therefore aborting a command (also when its deadline
+ * expires) terminates the shell (its channel is closed or its process destroyed) and
+ * fails all pending commands. The same happens when the shell's outputs cannot be
+ * matched to commands anymore.
+ * 
+ * @author Jernej Kovacic
+ */
+public final class CliPersistentShell extends CliAb
+{
+	/** Default shell, started by prepare() */
+	public static final String DEFAULT_SHELL = "/bin/sh";
+	
+	// an IExec implementation that will run the shell
+	private IExec transport = null;
+	// the command starting the shell
+	private String shell = null;
+	
+	// framing of commands, renewed with each shell
+	private CliShellFraming framing = null;
+	// shell's stdin, commands are written to it
+	private OutputStream shellIn = null;
+	// the shell's exec, completes when the shell terminates
+	private CompletableFuture<CliOutput> shellExec = null;
+	// aborts the shell's exec
+	private volatile CliExecHandle shellHandle = null;
+	// commands sent to the shell and waiting for their outputs (in the order of sending)
+	private Queue<Pending> outQueue = new ConcurrentLinkedQueue<Pending>();
+	private Queue<Pending> errQueue = new ConcurrentLinkedQueue<Pending>();
+	// commands' sequence numbers
+	private AtomicLong sequence = new AtomicLong(0);
+	// is the shell running?
+	private volatile boolean running = false;
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param transport - an IExec implementation that will run the shell
+	 * @param shell - command that starts the shell
+	 */
+	CliPersistentShell(IExec transport, String shell)
+	{
+		this.transport = transport;
+		this.shell = shell;
+	}
+	
+	/**
+	 * Sends a command to the shell, waits until it completes and passes its outputs to the processor.
+	 * 
+	 * Aborting the command via the handle terminates the shell and fails all
+	 * pending commands. Call prepare() to start a new shell.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort waiting for the command (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws CliException when execution fails for any reason
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException
+	{
+		// sanity check
+		if ( null==command || 0==command.length() )
+		{
+			throw new CliException("No command to execute");
+		}
+		
+		if ( null == processor )
+		{
+			throw new CliException("No processor provided");
+		}
+		
+		Pending pending = send(command);
+		
+		if ( null != handle )
+		{
+			final Pending p = pending;
+			handle.attach(new Runnable()
+					{
+						public void run()
+						{
+							// the shell is terminated before the command fails, so it is not running anymore when exec() returns
+							terminate("Shell terminated as command " + p.id + " was aborted");
+							p.fail("Command execution aborted");
+						}
+					});
+		}
+		
+		try
+		{
+			pending.await();
+		}
+		finally
+		{
+			if ( null != handle )
+			{
+				handle.detach();
+			}
+		}
+		
+		return CliShellFraming.process(processor, pending.out, pending.err, pending.exitCode);
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * Prepares the transport and starts the shell. If the previous
+	 * shell has terminated, a new one is started.
+	 * 
+	 * @throws CliException if something fails
+	 */
+	public synchronized void prepare() throws CliException
+	{
+		if ( true == running )
+		{
+			return;
+		}
+		
+		if ( null==transport || null==shell )
+		{
+			throw new CliException("No transport or shell provided");
+		}
+		
+		// the previous shell has terminated
+		releaseShell();
+		
+		// on a restart, the transport (e.g. an SSH session) is usually still usable
+		if ( false == transport.sessionActive() )
+		{
+			transport.prepare();
+		}
+		
+		framing = new CliShellFraming();
+		final ShellProcessor proc = new ShellProcessor(framing);
+		final CliExecHandle handle = new CliExecHandle();
+		
+		// the shell runs until cleanup(), so it must never wait in a queue of a bounded executor
+		shellHandle = handle;
+		shellExec = CliAsync.run(new CliAsync.IOperation<CliOutput>()
+				{
+					public CliOutput run() throws CliException
+					{
+						return transport.exec(proc, shell, handle);
+					}
+				}, handle, CliStreamDrainer.executor());
+		
+		// wait until the shell's streams are available
+		try
+		{
+			CompletableFuture.anyOf(proc.started, shellExec).get();
+		}
+		catch ( ExecutionException ex )
+		{
+			throw new CliException("Could not start the shell: " + ex.getCause().getMessage());
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+			throw new CliException("Interrupted while starting the shell");
+		}
+		
+		if ( false == proc.started.isDone() )
+		{
+			throw new CliException("Shell terminated immediately");
+		}
+		
+		shellIn = proc.stdin;
+		running = true;
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * Terminates the shell (by closing its stdin) and cleans up the transport.
+	 * If any commands are still pending, the shell is terminated forcibly 
+	 * and the commands fail.
+	 * 
+	 * @throws CliException if something fails
+	 */
+	public synchronized void cleanup() throws CliException
+	{
+		releaseShell();
+		transport.cleanup();
+	}
+	
+	/*
+	 * Terminates the shell (if still running) and waits until its exec completes
+	 */
+	private void releaseShell()
+	{
+		if ( null == shellIn )
+		{
+			return;
+		}
+		
+		synchronized(outQueue)
+		{
+			running = false;
+			
+			try
+			{
+				shellIn.close();
+			}
+			catch ( IOException ex )
+			{
+				// the shell has probably terminated already
+			}
+		}
+		
+		// pending commands would delay the shell's exit indefinitely
+		if ( false == outQueue.isEmpty() )
+		{
+			terminate("Shell closed by cleanup()");
+		}
+		
+		try
+		{
+			shellExec.get();
+		}
+		catch ( ExecutionException ex )
+		{
+			// the shell's failure is irrelevant at this point
+		}
+		catch ( CancellationException ex )
+		{
+			// the shell's failure is irrelevant at this point
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		shellIn = null;
+		shellExec = null;
+		shellHandle = null;
+	}
+	
+	/**
+	 * Implementation of a method declared by IExec.
+	 * 
+	 * @return whether the shell is running
+	 */
+	public boolean sessionActive()
+	{
+		return ( true==running && null!=transport && transport.sessionActive() );
+	}
+	
+	/*
+	 * Frames a command and writes it to the shell's stdin.
+	 * 
+	 * @param command - command to be sent
+	 * 
+	 * @return a pending command
+	 * 
+	 * @throws CliException if the shell is not running or writing fails
+	 */
+	private Pending send(String command) throws CliException
+	{
+		Pending retVal = new Pending();
+		
+		// commands must be enqueued in the same order as written to the shell
+		synchronized(outQueue)
+		{
+			if ( false == running )
+			{
+				throw new CliException("Shell not running");
+			}
+			
+			long id = sequence.incrementAndGet();
+			retVal.id = id;
+			
+			outQueue.add(retVal);
+			errQueue.add(retVal);
+			
+			try
+			{
+				shellIn.write(framing.frame(id, command, false).getBytes());
+				shellIn.flush();
+			}
+			catch ( IOException ex )
+			{
+				// the shell has terminated, its stdout reader will fail all pending commands
+				retVal.fail("Could not send the command to the shell: " + ex.getMessage());
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Terminates the shell forcibly (closes its channel or destroys its process)
+	 * and fails all pending commands. Used when a command cannot complete normally
+	 * and the shell's outputs would not match subsequent commands.
+	 * 
+	 * @param reason - the reason, reported to pending commands
+	 */
+	private void terminate(String reason)
+	{
+		// aborted first, as a sender may be blocked on the full stdin of the shell while holding the lock
+		CliExecHandle handle = shellHandle;
+		if ( null != handle )
+		{
+			handle.abort();
+		}
+		
+		synchronized(outQueue)
+		{
+			failAll(reason);
+		}
+	}
+	
+	/*
+	 * Fails all commands still waiting for their outputs
+	 */
+	private void failAll(String reason)
+	{
+		running = false;
+		
+		Pending p = null;
+		while ( null != (p = outQueue.poll()) )
+		{
+			p.fail(reason);
+		}
+		
+		errQueue.clear();
+	}
+	
+	/*
+	 * Processes outputs of the shell: its stdout is split by the calling thread 
+	 * (the one that executes the shell), its stderr by a pooled thread.
+	 */
+	private final class ShellProcessor implements ICliProcessor
+	{
+		private CliShellFraming framing;
+		// completes when the shell's streams are available
+		CompletableFuture<Void> started = new CompletableFuture<Void>();
+		OutputStream stdin = null;
+		
+		ShellProcessor(CliShellFraming framing)
+		{
+			this.framing = framing;
+		}
+		
+		public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException
+		{
+			if ( null==stdinStream || null==stdoutStream || null==stderrStream )
+			{
+				throw new CliException("Shell streams not provided");
+			}
+			
+			final CliShellFraming.SectionReader errReader = framing.reader(stderrStream);
+			Future<Void> pendingErr = CliStreamDrainer.inBackground(new Callable<Void>()
+					{
+						public Void call() throws IOException
+						{
+							byte[] section = null;
+							while ( null != (section = errReader.next()) )
+							{
+								Pending p = errQueue.poll();
+								if ( null==p || errReader.getLastId()!=p.id )
+								{
+									desync(p);
+									break;
+								}
+								
+								p.stderr(section);
+							}
+							
+							return null;
+						}
+					});
+			
+			stdin = stdinStream;
+			started.complete(null);
+			
+			String reason = "Shell terminated";
+			
+			try
+			{
+				CliShellFraming.SectionReader outReader = framing.reader(stdoutStream);
+				byte[] section = null;
+				while ( null != (section = outReader.next()) )
+				{
+					Pending p = outQueue.poll();
+					if ( null==p || outReader.getLastId()!=p.id )
+					{
+						desync(p);
+						break;
+					}
+					
+					p.stdout(section, outReader.getLastExitCode());
+				}
+				
+				CliStreamDrainer.await(pendingErr);
+			}
+			catch ( IOException ex )
+			{
+				reason = "Reading of shell outputs failed: " + ex.getMessage();
+				throw new CliException(reason);
+			}
+			finally
+			{
+				failAll(reason);
+			}
+			
+			return new CliOutput();
+		}
+	}
+	
+	/*
+	 * Handles a section that does not belong to the expected command.
+	 * Outputs of all subsequent commands would be mismatched, so the shell is terminated.
+	 * 
+	 * @param p - the expected command (may be null)
+	 */
+	private void desync(Pending p)
+	{
+		if ( null != p )
+		{
+			p.fail("Unexpected shell output");
+		}
+		
+		terminate("Shell outputs out of sync");
+	}
+	
+	/*
+	 * A command sent to the shell and waiting for its outputs
+	 */
+	private static final class Pending
+	{
+		long id = 0;
+		byte[] out = null;
+		byte[] err = null;
+		int exitCode = CliOutput.EXITCODE_NOT_SET;
+		String failure = null;
+		
+		// counted down when stdout and stderr are available (or on failure)
+		private CountDownLatch done = new CountDownLatch(2);
+		
+		synchronized void stdout(byte[] data, int code)
+		{
+			out = data;
+			exitCode = code;
+			done.countDown();
+		}
+		
+		synchronized void stderr(byte[] data)
+		{
+			err = data;
+			done.countDown();
+		}
+		
+		synchronized void fail(String reason)
+		{
+			if ( null == failure )
+			{
+				failure = reason;
+			}
+			
+			while ( done.getCount() > 0 )
+			{
+				done.countDown();
+			}
+		}
+		
+		void await() throws CliException
+		{
+			try
+			{
+				done.await();
+			}
+			catch ( InterruptedException ex )
+			{
+				Thread.currentThread().interrupt();
+				throw new CliException("Interrupted while waiting for the command to complete");
+			}
+			
+			synchronized(this)
+			{
+				if ( null != failure )
+				{
+					throw new CliException(failure);
+				}
+			}
+		}
+	}
+}
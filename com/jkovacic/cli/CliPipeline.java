@@ -0,0 +1,345 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Pipes stdout of one command directly into stdin of another one, the same way
+ * as e.g. "ssh host 'tar c dir' | tar x" does. Both commands may be executed
+ * by any implementation of IExec, e.g. a remote command (SSH, rexec, rsh)
+ * may feed a local one or vice versa.
+ * 
+ * Data is copied through a single buffer of a fixed size (see CliChannelSink)
+ * and is never accumulated in memory. When the sink command does not read its
+ * stdin fast enough, writing blocks, which in turn stops reading of the source 
+ * command's stdout, so the source command is throttled by its own transport.
+ * For relays between two remote hosts, where both sides' latencies fluctuate, 
+ * a ring of buffers (see setRingSize()) lets reading and writing proceed 
+ * independently until the ring is full or empty.
+ * 
+ * The source command is executed by a pooled thread (never queued, as the sink
+ * command waits for it), the sink one by the calling thread.
+ * When the source command finishes, the sink's stdin is closed, so the sink command
+ * receives the end of file. If one of the commands fails (e.g. its connection breaks),
+ * the other one is aborted, so the pipeline never hangs on a dead peer and the sink
+ * command never mistakes incomplete data for the end of file.
+ * 
+ * Both IExec instances must already be prepared. An instance of the class may be reused.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliPipelineOutput
+ */
+public class CliPipeline 
+{
+	/** Default size of the transfer buffer (256 KiB) */
+	public static final int DEFAULT_BUFFER_SIZE = 256 << 10;
+	
+	private IExec source;
+	private String sourceCommand;
+	private IExec sink;
+	private String sinkCommand;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int ringSize = 1;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param source - CLI environment of the command whose stdout will be piped
+	 * @param sourceCommand - full command, producing the data
+	 * @param sink - CLI environment of the command that will receive the data into its stdin
+	 * @param sinkCommand - full command, consuming the data
+	 * 
+	 * @throws CliException if any parameter is not provided
+	 */
+	public CliPipeline(IExec source, String sourceCommand, IExec sink, String sinkCommand) throws CliException
+	{
+		if ( null==source || null==sink )
+		{
+			throw new CliException("CLI environment not provided");
+		}
+		
+		if ( null==sourceCommand || 0==sourceCommand.length() || null==sinkCommand || 0==sinkCommand.length() )
+		{
+			throw new CliException("Nothing to execute");
+		}
+		
+		this.source = source;
+		this.sourceCommand = sourceCommand;
+		this.sink = sink;
+		this.sinkCommand = sinkCommand;
+	}
+	
+	/**
+	 * @param bufferSize - size of the transfer buffer in bytes
+	 */
+	public void setBufferSize(int bufferSize)
+	{
+		this.bufferSize = ( bufferSize>0 ? bufferSize : DEFAULT_BUFFER_SIZE );
+	}
+	
+	/**
+	 * @param buffers - number of transfer buffers in a ring; 1 (default) means that data are copied through a single buffer
+	 * 
+	 * @see CliChannelSink.setRingSize
+	 */
+	public void setRingSize(int buffers)
+	{
+		this.ringSize = Math.max(buffers, 1);
+	}
+	
+	/**
+	 * Executes the pipeline. Outputs of the sink command are processed
+	 * by CliNonInteractive.
+	 * 
+	 * @return results of both commands
+	 * 
+	 * @throws CliException if any of the commands fails
+	 */
+	public CliPipelineOutput exec() throws CliException
+	{
+		return exec(new CliNonInteractive());
+	}
+	
+	/**
+	 * Executes the pipeline and waits until both commands complete.
+	 * 
+	 * @param sinkProcessor - a class that will process outputs (stdout and stderr) of the sink command
+	 * 
+	 * @return results of both commands
+	 * 
+	 * @throws CliException if any of the commands fails
+	 */
+	public CliPipelineOutput exec(ICliProcessor sinkProcessor) throws CliException
+	{
+		if ( null == sinkProcessor )
+		{
+			throw new CliException("No processor provided");
+		}
+		
+		// stdin of the sink command, available when the command starts
+		final CompletableFuture<OutputStream> sinkStdin = new CompletableFuture<OutputStream>();
+		final CliExecHandle sourceHandle = new CliExecHandle();
+		final CliExecHandle sinkHandle = new CliExecHandle();
+		// the first failure is reported, the other command's failure is usually its consequence
+		final AtomicReference<CliException> firstError = new AtomicReference<CliException>();
+		
+		CompletableFuture<CliOutput> pendingSource = CliAsync.run(new CliAsync.IOperation<CliOutput>()
+				{
+					public CliOutput run() throws CliException
+					{
+						return source.exec(new SourceProcessor(sinkStdin, sinkHandle, firstError, bufferSize, ringSize), sourceCommand, sourceHandle);
+					}
+				}, sourceHandle, CliStreamDrainer.executor());
+		
+		// the sink receives the end of file only if the source command succeeds
+		pendingSource.whenComplete(new BiConsumer<CliOutput, Throwable>()
+				{
+					public void accept(CliOutput output, Throwable th)
+					{
+						if ( null != th )
+						{
+							firstError.compareAndSet(null, toCliException(th));
+							
+							// the data are incomplete, the sink must not treat them as complete
+							sinkHandle.abort();
+							return;
+						}
+						
+						sinkStdin.thenAccept(new Consumer<OutputStream>()
+								{
+									public void accept(OutputStream stdin)
+									{
+										closeQuietly(stdin);
+									}
+								});
+					}
+				});
+		
+		CliOutput sinkOutput = null;
+		
+		try
+		{
+			sinkOutput = sink.exec(new SinkProcessor(sinkStdin, sinkProcessor), sinkCommand, sinkHandle);
+		}
+		catch ( CliException ex )
+		{
+			firstError.compareAndSet(null, ex);
+		}
+		finally
+		{
+			// the source command has nowhere to write anymore
+			if ( true == sinkStdin.completeExceptionally(new CliException("The sink command did not start")) ||
+				 null == sinkOutput )
+			{
+				sourceHandle.abort();
+			}
+		}
+		
+		CliOutput sourceOutput = null;
+		try
+		{
+			sourceOutput = pendingSource.get();
+		}
+		catch ( ExecutionException ex )
+		{
+			firstError.compareAndSet(null, toCliException(ex.getCause()));
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+			sourceHandle.abort();
+			throw new CliException("Interrupted while waiting for the source command to complete");
+		}
+		
+		if ( null != firstError.get() )
+		{
+			throw firstError.get();
+		}
+		
+		return new CliPipelineOutput((CliTransferOutput) sourceOutput, sinkOutput);
+	}
+	
+	/*
+	 * Converts a failure of the source command into a CliException
+	 */
+	private static CliException toCliException(Throwable th)
+	{
+		if ( th instanceof CompletionException && null != th.getCause() )
+		{
+			th = th.getCause();
+		}
+		
+		return ( th instanceof CliException ? (CliException) th : new CliException("Source command failed: " + th) );
+	}
+	
+	/*
+	 * Closes a stream, ignoring any errors
+	 */
+	private static void closeQuietly(OutputStream stream)
+	{
+		try
+		{
+			stream.close();
+		}
+		catch ( IOException ex )
+		{
+			// the stream is not needed anymore
+		}
+	}
+	
+	/*
+	 * Processor of the source command, copies its stdout into the sink's stdin
+	 */
+	private static final class SourceProcessor implements ICliProcessor
+	{
+		private CompletableFuture<OutputStream> sinkStdin;
+		private CliExecHandle sinkHandle;
+		private AtomicReference<CliException> firstError;
+		private int bufferSize;
+		private int ringSize;
+		
+		SourceProcessor(CompletableFuture<OutputStream> sinkStdin, CliExecHandle sinkHandle, 
+				AtomicReference<CliException> firstError, int bufferSize, int ringSize)
+		{
+			this.sinkStdin = sinkStdin;
+			this.sinkHandle = sinkHandle;
+			this.firstError = firstError;
+			this.bufferSize = bufferSize;
+			this.ringSize = ringSize;
+		}
+		
+		public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException
+		{
+			OutputStream target = null;
+			
+			try
+			{
+				target = sinkStdin.get();
+			}
+			catch ( ExecutionException ex )
+			{
+				throw new CliException("The sink command did not start");
+			}
+			catch ( InterruptedException ex )
+			{
+				Thread.currentThread().interrupt();
+				throw new CliException("Interrupted while waiting for the sink command to start");
+			}
+			
+			// the source command does not expect any input
+			closeQuietly(stdinStream);
+			
+			CliOutput retVal = null;
+			
+			try
+			{
+				CliChannelSink transfer = new CliChannelSink(Channels.newChannel(target), bufferSize);
+				transfer.setRingSize(ringSize);
+				retVal = transfer.process(null, stdoutStream, stderrStream);
+				return retVal;
+			}
+			catch ( CliException ex )
+			{
+				// reported instead of the sink's failure, caused by aborting it
+				firstError.compareAndSet(null, ex);
+				throw ex;
+			}
+			finally
+			{
+				if ( null != retVal )
+				{
+					closeQuietly(target);
+				}
+				else
+				{
+					// the sink is aborted before its stdin is closed, so it never receives the end of incomplete data
+					sinkHandle.abort();
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Processor of the sink command, publishes its stdin to the source's 
+	 * processor and processes its outputs by the application's processor
+	 */
+	private static final class SinkProcessor implements ICliProcessor
+	{
+		private CompletableFuture<OutputStream> sinkStdin;
+		private ICliProcessor delegate;
+		
+		SinkProcessor(CompletableFuture<OutputStream> sinkStdin, ICliProcessor delegate)
+		{
+			this.sinkStdin = sinkStdin;
+			this.delegate = delegate;
+		}
+		
+		public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException
+		{
+			sinkStdin.complete(stdinStream);
+			
+			// stdin is owned by the source's processor, the delegate gets a dummy stream instead
+			return delegate.process(new ByteArrayOutputStream(), stdoutStream, stderrStream);
+		}
+	}
+}
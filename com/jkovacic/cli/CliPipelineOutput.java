@@ -0,0 +1,67 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+/**
+ * Results of a pipeline, executed by CliPipeline. Results of both
+ * commands, including their exit codes, are available.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliPipeline
+ */
+public class CliPipelineOutput 
+{
+	// results of the command whose stdout was piped (only stderr lines are stored)
+	private CliTransferOutput source;
+	
+	// results of the command that received the data into its stdin
+	private CliOutput sink;
+	
+	/*
+	 * Constructor, only called by CliPipeline
+	 */
+	CliPipelineOutput(CliTransferOutput source, CliOutput sink)
+	{
+		this.source = source;
+		this.sink = sink;
+	}
+	
+	/**
+	 * @return results of the source command with its exit code, stderr and transfer statistics
+	 */
+	public CliTransferOutput getSourceOutput()
+	{
+		return source;
+	}
+	
+	/**
+	 * @return results of the sink command, as returned by its processor
+	 */
+	public CliOutput getSinkOutput()
+	{
+		return sink;
+	}
+	
+	/**
+	 * @return true if both commands exited with the exit code 0
+	 */
+	public boolean isSuccessful()
+	{
+		return ( 0==source.exitCode && 0==sink.exitCode );
+	}
+}
@@ -44,16 +44,18 @@ public final class CliRexec extends CliAb
 	}
 	
 	/**
-	 * Executes a command over rexec method 'exec'
+	 * Executes a command over rexec method 'exec'.
+	 * Aborting the command via the handle closes the connection.
 	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return an instance of CliOutput with results of the executed command
 	 * 
 	 * @throws CliException when execution fails for any reason
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws CliException 
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException 
 	{
 		// check input parameters:
 		if ( null==command || 0==command.length() )
@@ -70,7 +72,7 @@ public final class CliRexec extends CliAb
 		
 		try
 		{
-			retVal = remoteContext.exec(processor, command);
+			retVal = remoteContext.exec(processor, command, handle);
 		}
 		catch ( RException ex )
 		{
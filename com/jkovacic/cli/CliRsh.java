@@ -49,16 +49,18 @@ public final class CliRsh extends CliAb
 	}
 	
 	/**
-	 * Executes a command over rsh method 'exec'
+	 * Executes a command over rsh method 'exec'.
+	 * Aborting the command via the handle closes the connection.
 	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return an instance of CliOutput with results of the executed command
 	 * 
 	 * @throws CliException when execution fails for any reason
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws CliException 
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException 
 	{
 		// check input parameters:
 		if ( null==command || 0==command.length() )
@@ -75,7 +77,7 @@ public final class CliRsh extends CliAb
 		
 		try
 		{
-			retVal = remoteContext.exec(processor, command);
+			retVal = remoteContext.exec(processor, command, handle);
 		}
 		catch ( RException ex )
 		{
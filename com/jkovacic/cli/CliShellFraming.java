@@ -0,0 +1,440 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.security.SecureRandom;
+
+/**
+ * A utility class that frames commands, sent to a POSIX shell (sh) over its stdin 
+ * or as a single script, with unique sentinel markers, and splits the shell's
+ * stdout and stderr back into sections, belonging to individual commands.
+ * 
+ * Each command is followed by a marker line on stdout, also containing the command's
+ * exit code, and by a marker line on stderr. Each marker line is preceded by an 
+ * extra line feed, so it always starts at the beginning of a line, even if the command's 
+ * output does not end with a line feed. The extra line feed is removed when sections 
+ * are split, so each command's output is reproduced exactly.
+ * 
+ * Markers contain a random nonce, so it is extremely unlikely that a command 
+ * prints a line that could be mistaken for a marker.
+ * 
+ * @author Jernej Kovacic
+ */
+final class CliShellFraming 
+{
+	private static final SecureRandom rnd = new SecureRandom();
+	
+	// all markers begin with this prefix
+	private String prefix;
+	
+	/*
+	 * Constructor, generates a new random marker prefix
+	 */
+	CliShellFraming()
+	{
+		this.prefix = "__cli_" + Long.toHexString(rnd.nextLong()) + "_";
+	}
+	
+	/*
+	 * Quotes a string for a POSIX shell, so it is interpreted literally.
+	 * The string is enclosed in single quotes and each single quote
+	 * is replaced by '\'' (end quoting, escaped quote, start quoting).
+	 * 
+	 * @param str - string to be quoted
+	 * 
+	 * @return quoted string
+	 */
+	static String quote(String str)
+	{
+		StringBuilder sb = new StringBuilder(str.length() + 2);
+		sb.append('\'');
+		
+		for ( int i=0; i<str.length(); i++ )
+		{
+			char ch = str.charAt(i);
+			
+			if ( '\'' == ch )
+			{
+				sb.append("'\\''");
+			}
+			else
+			{
+				sb.append(ch);
+			}
+		}
+		
+		sb.append('\'');
+		return sb.toString();
+	}
+	
+	/*
+	 * Frames a command as a single shell line.
+	 * 
+	 * The command is run via 'command eval', so even a syntax error in the command 
+	 * does not terminate the shell (in contrast to plain 'eval', a special builtin).
+	 * Its stdin is redirected from /dev/null, so it cannot consume the following commands
+	 * when the shell reads them from its stdin.
+	 * 
+	 * If the command is not isolated, shell state (e.g. the current directory,
+	 * variables) is preserved among commands and a command like 'exit' terminates
+	 * the shell. An isolated command is run in a subshell, so neither its changes
+	 * of the state nor 'exit' affect the following commands.
+	 * 
+	 * @param id - command's sequence number
+	 * @param command - command to be framed
+	 * @param isolated - whether the command is run in a subshell
+	 * 
+	 * @return framed command, terminated by a line feed
+	 */
+	String frame(long id, String command, boolean isolated)
+	{
+		String marker = prefix + id;
+		String run = "command eval " + quote(command);
+		
+		return ( true==isolated ? "( " + run + " )" : run ) + " </dev/null; " +
+				"__cli_rc=$?; " +
+				"printf '\\n%s %d\\n' '" + marker + "' \"$__cli_rc\"; " +
+				"printf '\\n%s\\n' '" + marker + "' >&2\n";
+	}
+	
+	/*
+	 * Creates a reader of sections, framed by this instance.
+	 * 
+	 * @param stream - shell's stdout or stderr
+	 * 
+	 * @return a section reader
+	 */
+	SectionReader reader(InputStream stream)
+	{
+		return new SectionReader(stream, prefix);
+	}
+	
+	/*
+	 * Frames a list of commands into a script that executes them one after another,
+	 * each of them in its own subshell, so they are independent of each other.
+	 * 
+	 * @param commands - commands to be framed, their indexes are used as sequence numbers
+	 * 
+	 * @return a script, consisting of framed commands
+	 * 
+	 * @throws CliException if any command is missing
+	 */
+	String script(List<String> commands) throws CliException
+	{
+		StringBuilder sb = new StringBuilder();
+		long id = 0;
+		
+		for ( String cmd : commands )
+		{
+			if ( null==cmd || 0==cmd.length() )
+			{
+				throw new CliException("Empty command in the batch");
+			}
+			
+			sb.append(frame(id++, cmd, true));
+		}
+		
+		return sb.toString();
+	}
+	
+	/*
+	 * Creates a processor that splits outputs of a script (see script())
+	 * into sections of individual commands.
+	 * 
+	 * @return a processor that collects sections
+	 */
+	Collector collector()
+	{
+		return new Collector(this);
+	}
+	
+	/*
+	 * Passes a command's captured outputs to a processor.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param out - command's captured stdout
+	 * @param err - command's captured stderr
+	 * @param exitCode - command's exit code
+	 * 
+	 * @return results of the processor, with the exit code set
+	 * 
+	 * @throws CliException if the processor fails
+	 */
+	static CliOutput process(ICliProcessor processor, byte[] out, byte[] err, int exitCode) throws CliException
+	{
+		// the command has already completed, nothing can be sent to its stdin
+		CliOutput retVal = processor.process(
+				new ByteArrayOutputStream(), 
+				new ByteArrayInputStream(out), 
+				new ByteArrayInputStream(err) );
+		
+		if ( null == retVal )
+		{
+			retVal = new CliOutput();
+		}
+		
+		retVal.exitCode = exitCode;
+		return retVal;
+	}
+	
+	/*
+	 * A processor that collects all sections of a script's stdout and stderr.
+	 * Stderr is split by a pooled thread while the calling thread splits stdout.
+	 */
+	static final class Collector implements ICliProcessor
+	{
+		private CliShellFraming framing;
+		
+		// captured sections in the order of their markers
+		private List<byte[]> outSections = new ArrayList<byte[]>();
+		private List<byte[]> errSections = new ArrayList<byte[]>();
+		private List<Integer> exitCodes = new ArrayList<Integer>();
+		
+		private Collector(CliShellFraming framing)
+		{
+			this.framing = framing;
+		}
+		
+		public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException
+		{
+			if ( null==stdoutStream || null==stderrStream )
+			{
+				throw new CliException("Output streams not provided");
+			}
+			
+			final SectionReader errReader = framing.reader(stderrStream);
+			Future<Void> pendingErr = CliStreamDrainer.inBackground(new Callable<Void>()
+					{
+						public Void call() throws IOException
+						{
+							byte[] section = null;
+							while ( null != (section = errReader.next()) )
+							{
+								errSections.add(section);
+							}
+							
+							return null;
+						}
+					});
+			
+			try
+			{
+				SectionReader outReader = framing.reader(stdoutStream);
+				byte[] section = null;
+				while ( null != (section = outReader.next()) )
+				{
+					outSections.add(section);
+					exitCodes.add(outReader.getLastExitCode());
+				}
+				
+				// also makes errSections visible to this thread
+				CliStreamDrainer.await(pendingErr);
+			}
+			catch ( IOException ex )
+			{
+				throw new CliException("Reading of outputs failed: " + ex.getMessage());
+			}
+			
+			return new CliOutput();
+		}
+		
+		/*
+		 * Passes captured sections of each command to a processor.
+		 * 
+		 * @param processor - a class that will process each command's outputs
+		 * @param expected - number of commands in the script
+		 * 
+		 * @return results of all commands in the order of execution
+		 * 
+		 * @throws CliException if the script terminated before all commands completed
+		 */
+		List<CliOutput> results(ICliProcessor processor, int expected) throws CliException
+		{
+			int completed = Math.min(outSections.size(), errSections.size());
+			if ( completed < expected )
+			{
+				throw new CliException("Batch terminated after " + completed + " of " + expected + " commands");
+			}
+			
+			List<CliOutput> retVal = new ArrayList<CliOutput>(expected);
+			for ( int i=0; i<expected; i++ )
+			{
+				retVal.add(CliShellFraming.process(processor, outSections.get(i), errSections.get(i), exitCodes.get(i)));
+			}
+			
+			return retVal;
+		}
+	}
+	
+	/*
+	 * Splits a stream into sections, each one terminated by a marker line.
+	 */
+	static final class SectionReader
+	{
+		private InputStream stream;
+		private byte[] prefix;
+		
+		private byte[] buf = new byte[8192];
+		private int pos = 0;
+		private int limit = 0;
+		
+		// data of the last marker line
+		private long lastId = -1;
+		private int lastExitCode = CliOutput.EXITCODE_NOT_SET;
+		
+		/*
+		 * Constructor
+		 * 
+		 * @param stream - stream to be split
+		 * @param prefix - common prefix of markers
+		 */
+		private SectionReader(InputStream stream, String prefix)
+		{
+			this.stream = stream;
+			this.prefix = prefix.getBytes();
+		}
+		
+		/*
+		 * Reads the next section.
+		 * 
+		 * @return section's data (without the marker line and the extra line feed before it) or null if the end of stream was reached
+		 * 
+		 * @throws IOException if reading fails or a marker line is corrupted
+		 */
+		byte[] next() throws IOException
+		{
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			
+			while ( true )
+			{
+				if ( pos == limit )
+				{
+					limit = stream.read(buf);
+					pos = 0;
+					
+					if ( limit < 0 )
+					{
+						limit = 0;
+						return null;
+					}
+				}
+				
+				// find the end of the current line
+				int end = pos;
+				while ( end<limit && '\n'!=buf[end] )
+				{
+					end++;
+				}
+				
+				if ( end == limit )
+				{
+					// incomplete line, wait for the rest of it
+					line.write(buf, pos, end-pos);
+					pos = end;
+					continue;
+				}
+				
+				line.write(buf, pos, end-pos+1);
+				pos = end + 1;
+				
+				byte[] lineBytes = line.toByteArray();
+				line.reset();
+				
+				if ( true == isMarker(lineBytes) )
+				{
+					parseMarker(lineBytes);
+					
+					// remove the extra line feed, preceding the marker
+					byte[] all = data.toByteArray();
+					byte[] retVal = new byte[Math.max(all.length-1, 0)];
+					System.arraycopy(all, 0, retVal, 0, retVal.length);
+					return retVal;
+				}
+				
+				data.write(lineBytes, 0, lineBytes.length);
+			}
+		}
+		
+		/*
+		 * @return sequence number of the command from the last marker line
+		 */
+		long getLastId()
+		{
+			return lastId;
+		}
+		
+		/*
+		 * @return exit code from the last marker line (EXITCODE_NOT_SET for stderr markers)
+		 */
+		int getLastExitCode()
+		{
+			return lastExitCode;
+		}
+		
+		/*
+		 * Does the line start with the marker prefix?
+		 */
+		private boolean isMarker(byte[] line)
+		{
+			if ( line.length < prefix.length )
+			{
+				return false;
+			}
+			
+			for ( int i=0; i<prefix.length; i++ )
+			{
+				if ( line[i] != prefix[i] )
+				{
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/*
+		 * Parses the command's sequence number and optional exit code from a marker line
+		 */
+		private void parseMarker(byte[] line) throws IOException
+		{
+			String rest = new String(line, prefix.length, line.length-prefix.length).trim();
+			int space = rest.indexOf(' ');
+			
+			try
+			{
+				if ( space < 0 )
+				{
+					lastId = Long.parseLong(rest);
+					lastExitCode = CliOutput.EXITCODE_NOT_SET;
+				}
+				else
+				{
+					lastId = Long.parseLong(rest.substring(0, space));
+					lastExitCode = Integer.parseInt(rest.substring(space+1).trim());
+				}
+			}
+			catch ( NumberFormatException ex )
+			{
+				throw new IOException("Corrupted marker line: '" + rest + "'");
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/**
+ * Lines of a command's output stream, stored in a memory mapped (temporary) file.
+ * The index of lines (their start and end offsets) is appended to the same file
+ * and mapped as well, so heap consumption does not depend on the number of lines.
+ * Lines are decoded on request.
+ * 
+ * Lines are terminated the same way as by BufferedReader.readLine()
+ * ("\n", "\r" or "\r\n"). Trailing empty lines are ignored, like by CliCharLines.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliCapturePolicy
+ */
+final class CliSpilledLines implements ICliLines 
+{
+	// a single mapping is limited to 2 GiB, the index is mapped in chunks of this many lines (1 GiB)
+	private static final int LINES_PER_CHUNK = 1 << 27;
+	
+	// size of the buffer for writing the index
+	private static final int WRITE_BUFFER_SIZE = 8192;
+	
+	// the mapped output
+	private ByteBuffer data;
+	// mapped chunks of the index, start and end (exclusive, without line terminators) offset of each line
+	private IntBuffer[] index;
+	// number of lines
+	private int count = 0;
+	
+	/*
+	 * Constructor, indexes lines of the output and appends the index to the file.
+	 * 
+	 * @param ch - channel of the file, containing the output (at most 2 GiB), opened for reading and writing
+	 * 
+	 * @throws IOException if writing or mapping of the file fails
+	 */
+	CliSpilledLines(FileChannel ch) throws IOException
+	{
+		long len = ch.size();
+		this.data = ch.map(FileChannel.MapMode.READ_ONLY, 0, len);
+		
+		ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		ch.position(len);
+		
+		// number of all indexed lines, including trailing empty ones
+		int total = 0;
+		int start = 0;
+		int i = 0;
+		
+		while ( i < len )
+		{
+			byte b = data.get(i);
+			
+			if ( '\n'!=b && '\r'!=b )
+			{
+				i++;
+				continue;
+			}
+			
+			total = addLine(ch, out, total, start, i);
+			
+			// "\r\n" is a single line terminator
+			if ( '\r'==b && i+1<len && '\n'==data.get(i+1) )
+			{
+				i++;
+			}
+			
+			i++;
+			start = i;
+		}
+		
+		// the last line may not be terminated
+		if ( start < len )
+		{
+			total = addLine(ch, out, total, start, (int) len);
+		}
+		
+		flush(ch, out);
+		
+		// map the index in chunks
+		int chunks = ( total + LINES_PER_CHUNK - 1 ) / LINES_PER_CHUNK;
+		this.index = new IntBuffer[chunks];
+		for ( int c=0; c<chunks; c++ )
+		{
+			long lines = Math.min(LINES_PER_CHUNK, total - (long) c * LINES_PER_CHUNK);
+			this.index[c] = ch.map(FileChannel.MapMode.READ_ONLY, 
+					len + 8L * c * LINES_PER_CHUNK, 8L * lines).asIntBuffer();
+		}
+	}
+	
+	/*
+	 * Appends a line to the index. Trailing empty lines are not counted,
+	 * however they are indexed, in case a nonempty line follows.
+	 * 
+	 * @return number of indexed lines
+	 */
+	private int addLine(FileChannel ch, ByteBuffer out, int total, int start, int end) throws IOException
+	{
+		if ( out.remaining() < 8 )
+		{
+			flush(ch, out);
+		}
+		
+		out.putInt(start);
+		out.putInt(end);
+		total++;
+		
+		if ( start != end )
+		{
+			count = total;
+		}
+		
+		return total;
+	}
+	
+	/*
+	 * Writes the buffered part of the index into the file
+	 */
+	private static void flush(FileChannel ch, ByteBuffer out) throws IOException
+	{
+		out.flip();
+		while ( out.hasRemaining() )
+		{
+			ch.write(out);
+		}
+		out.clear();
+	}
+	
+	/**
+	 * @return number of lines
+	 */
+	public int count()
+	{
+		return count;
+	}
+	
+	/**
+	 * Decodes a single line
+	 * 
+	 * @param index - line number (0 based)
+	 * 
+	 * @return the line
+	 * 
+	 * @throws IndexOutOfBoundsException if 'index' is out of range
+	 */
+	public String get(int index)
+	{
+		if ( index<0 || index>=count )
+		{
+			throw new IndexOutOfBoundsException("Invalid line number: " + index);
+		}
+		
+		IntBuffer chunk = this.index[index / LINES_PER_CHUNK];
+		int pos = 2 * (index % LINES_PER_CHUNK);
+		
+		// duplicate, so concurrent decoding of lines does not interfere
+		ByteBuffer line = data.duplicate();
+		line.limit(chunk.get(pos+1));
+		line.position(chunk.get(pos));
+		
+		return Charset.defaultCharset().decode(line).toString();
+	}
+	
+	/**
+	 * Decodes all lines
+	 * 
+	 * @return array of all lines
+	 */
+	public String[] toArray()
+	{
+		String[] retVal = new String[count];
+		
+		for ( int i=0; i<count; i++ )
+		{
+			retVal[i] = get(i);
+		}
+		
+		return retVal;
+	}
+}
@@ -35,6 +35,16 @@ public final class CliSsh extends CliAb
 	 */
 	private boolean managableConnection = true;
 	
+	/*
+	 * When a session pool is used, prepare() borrows a session from the pool
+	 * and cleanup() returns it, instead of establishing/terminating a connection.
+	 */
+	private SshSessionPool pool = null;
+	private Ssh2.SshImpl poolImpl = null;
+	private HostId poolHost = null;
+	private UserCredentials poolUser = null;
+	private EncryptionAlgorithms poolAlgs = null;
+	
 	/*
 	 * Constructor, sets up the SSH context variable
 	 * 
@@ -56,6 +66,25 @@ public final class CliSsh extends CliAb
 		setup(sshContext, true);
 	}
 	
+	/*
+	 * Constructor, the SSH context will be borrowed from a session pool by prepare()
+	 * 
+	 * @param pool - a pool of SSH sessions
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algs - selected encryption algorithms
+	 */
+	CliSsh(SshSessionPool pool, Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs)
+	{
+		setup(null, true);
+		this.pool = pool;
+		this.poolImpl = which;
+		this.poolHost = host;
+		this.poolUser = user;
+		this.poolAlgs = algs;
+	}
+	
 	/*
 	 * Sets up the class's members
 	 * 
@@ -69,16 +98,18 @@ public final class CliSsh extends CliAb
 	}
 	
 	/**
-	 * Executes a command over SSH 'exec'
+	 * Executes a command over SSH 'exec'. 
+	 * Aborting the command via the handle closes the SSH channel.
 	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return an instance of CliOutput with results of the executed command
 	 * 
 	 * @throws CliException when execution fails for any reason
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws CliException
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException
 	{
 		// sanity check
 		if ( null==command || 0==command.length() )
@@ -95,7 +126,7 @@ public final class CliSsh extends CliAb
 		
 		try
 		{
-			retVal = sshcontext.exec(processor, command);
+			retVal = sshcontext.exec(processor, command, handle);
 		}
 		catch ( SshException ex )
 		{
@@ -107,7 +138,8 @@ public final class CliSsh extends CliAb
 	
 	/**
 	 * Implementation of a method declared by IExec.
-	 * Establishes a connection to a SSH server.
+	 * Establishes a connection to a SSH server or borrows 
+	 * an established one from the session pool.
 	 * 
 	 * @throws CliException if something fails
 	 */
@@ -120,7 +152,14 @@ public final class CliSsh extends CliAb
 		
 		try
 		{
-			if ( null == sshcontext )
+			if ( null != pool )
+			{
+				if ( null == sshcontext )
+				{
+					sshcontext = pool.borrow(poolImpl, poolHost, poolUser, poolAlgs);
+				}
+			}
+			else if ( null == sshcontext )
 			{
 				throw new CliException("No SSH context provided");
 			}
@@ -137,7 +176,7 @@ public final class CliSsh extends CliAb
 	
 	/**
 	 * Implementation of a method declared by IExec.
-	 * Terminates the SSH connection.
+	 * Terminates the SSH connection or returns it into the session pool.
 	 * 
 	 * @throws CliException if something fails
 	 */
@@ -150,7 +189,16 @@ public final class CliSsh extends CliAb
 		
 		try
 		{
-			if ( null != sshcontext )
+			if ( null != pool )
+			{
+				if ( null != sshcontext )
+				{
+					Ssh2 borrowed = sshcontext;
+					sshcontext = null;
+					pool.release(borrowed);
+				}
+			}
+			else if ( null != sshcontext )
 			{
 				sshcontext.disconnect();
 			}
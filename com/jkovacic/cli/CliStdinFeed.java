@@ -0,0 +1,310 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Implementation of ICliProcessor that streams data (from a local file,
+ * a channel or a buffer) into the command's stdin, while the command's outputs 
+ * are processed concurrently by another ICliProcessor (CliNonInteractive by default).
+ * 
+ * Data is written in large chunks by a pooled thread. When all data has been
+ * written, stdin is closed, so the command receives the end of file.
+ * 
+ * Note that some implementations of rexec and rsh close the whole connection
+ * (including stdout and stderr) when stdin is closed. For such implementations,
+ * closing of stdin should be disabled by setCloseAtEof(false).
+ * 
+ * As the source can only be read once, an instance may only be used for a single command.
+ * 
+ * @author Jernej Kovacic
+ */
+public class CliStdinFeed implements ICliProcessor 
+{
+	/** Default size of chunks, written into stdin (1 MiB) */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	
+	// the source of data: a file (opened when the command starts), a channel or a buffer
+	private File source = null;
+	private ReadableByteChannel channel = null;
+	private ByteBuffer buffer = null;
+	// is the channel opened by this class (and must be closed by it)?
+	private boolean ownChannel = false;
+	
+	// processor of the command's outputs
+	private ICliProcessor delegate;
+	
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private boolean closeAtEof = true;
+	
+	// number of bytes, written into stdin
+	private volatile long bytesFed = 0;
+	
+	/**
+	 * Constructor, streams a local file into stdin
+	 * 
+	 * @param file - file to be streamed
+	 * @param delegate - processor of the command's outputs (CliNonInteractive if null)
+	 */
+	public CliStdinFeed(File file, ICliProcessor delegate)
+	{
+		this.delegate = delegate;
+		this.source = file;
+	}
+	
+	/**
+	 * Constructor, streams contents of a channel into stdin.
+	 * The channel is not closed by this class.
+	 * 
+	 * @param channel - channel to be streamed
+	 * @param delegate - processor of the command's outputs (CliNonInteractive if null)
+	 */
+	public CliStdinFeed(ReadableByteChannel channel, ICliProcessor delegate)
+	{
+		this.delegate = delegate;
+		this.channel = channel;
+	}
+	
+	/**
+	 * Constructor, streams the remaining contents of a buffer into stdin.
+	 * 
+	 * @param buffer - buffer to be streamed (its position is advanced)
+	 * @param delegate - processor of the command's outputs (CliNonInteractive if null)
+	 */
+	public CliStdinFeed(ByteBuffer buffer, ICliProcessor delegate)
+	{
+		this.delegate = delegate;
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * @param chunkSize - size of chunks, written into stdin
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = ( chunkSize>0 ? chunkSize : DEFAULT_CHUNK_SIZE );
+	}
+	
+	/**
+	 * @param close - whether stdin is closed when all data has been written (true by default)
+	 */
+	public void setCloseAtEof(boolean close)
+	{
+		this.closeAtEof = close;
+	}
+	
+	/**
+	 * @return number of bytes, written into the command's stdin
+	 */
+	public long getBytesFed()
+	{
+		return bytesFed;
+	}
+	
+	/**
+	 * Streams the data into stdin and processes the command's outputs concurrently
+	 * 
+	 * @param stdinStream - OutputStream of stdin
+	 * @param stdoutStream - InputStream of stdout
+	 * @param stderrStream - InputStream of stderr
+	 * 
+	 * @return an instance of CliOutput, returned by the delegate processor
+	 * 
+	 * @throws CliException when an error occurs, including when the command did not read all data
+	 */
+	public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException 
+	{
+		if ( null == stdinStream )
+		{
+			throw new CliException("Input stream not provided");
+		}
+		
+		if ( null==channel && null==buffer && null==source )
+		{
+			throw new CliException("No input data provided");
+		}
+		
+		if ( null != source )
+		{
+			try
+			{
+				channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				ownChannel = true;
+				source = null;
+			}
+			catch ( IOException ex )
+			{
+				throw new CliException("Could not open the input file: " + ex.getMessage());
+			}
+		}
+		
+		final OutputStream stdin = stdinStream;
+		Future<Void> pendingFeed = CliStreamDrainer.inBackground(new Callable<Void>()
+				{
+					public Void call() throws IOException
+					{
+						feed(stdin);
+						return null;
+					}
+				});
+		
+		CliOutput retVal = null;
+		try
+		{
+			// the delegate must not write into stdin, it gets a dummy stream instead
+			retVal = ( null==delegate ? new CliNonInteractive() : delegate ).process(
+					new ByteArrayOutputStream(), stdoutStream, stderrStream);
+		}
+		finally
+		{
+			try
+			{
+				if ( null == retVal )
+				{
+					/*
+					 * The delegate has failed and the command may not read its stdin anymore,
+					 * so the feeding thread might block in write() forever. The feed is cancelled
+					 * and stdin is closed (by a pooled thread, as closing may wait for the blocked
+					 * write), the delegate's failure is reported without waiting for the feed.
+					 */
+					pendingFeed.cancel(true);
+					CliStreamDrainer.inBackground(new Callable<Void>()
+							{
+								public Void call() throws IOException
+								{
+									stdin.close();
+									return null;
+								}
+							});
+				}
+				else
+				{
+					CliStreamDrainer.await(pendingFeed);
+				}
+			}
+			catch ( IOException ex )
+			{
+				throw new CliException("Writing into stdin failed after " + bytesFed + " bytes: " + ex.getMessage());
+			}
+			finally
+			{
+				if ( true == ownChannel )
+				{
+					try
+					{
+						channel.close();
+					}
+					catch ( IOException ex )
+					{
+						// the file was only read, nothing to do
+					}
+				}
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Writes all data into stdin in chunks and closes it at the end
+	 */
+	private void feed(OutputStream stdin) throws IOException
+	{
+		try
+		{
+			if ( null != buffer )
+			{
+				feedBuffer(stdin);
+			}
+			else
+			{
+				feedChannel(stdin);
+			}
+			
+			stdin.flush();
+		}
+		finally
+		{
+			if ( true == closeAtEof )
+			{
+				stdin.close();
+			}
+		}
+	}
+	
+	/*
+	 * Writes the remaining contents of the buffer
+	 */
+	private void feedBuffer(OutputStream stdin) throws IOException
+	{
+		if ( true == buffer.hasArray() )
+		{
+			// no copying necessary
+			while ( buffer.hasRemaining() )
+			{
+				int n = Math.min(buffer.remaining(), chunkSize);
+				stdin.write(buffer.array(), buffer.arrayOffset()+buffer.position(), n);
+				buffer.position(buffer.position()+n);
+				bytesFed += n;
+			}
+		}
+		else
+		{
+			// e.g. a direct or mapped buffer, copied chunk by chunk
+			byte[] chunk = new byte[Math.min(buffer.remaining(), chunkSize)];
+			while ( buffer.hasRemaining() )
+			{
+				int n = Math.min(buffer.remaining(), chunk.length);
+				buffer.get(chunk, 0, n);
+				stdin.write(chunk, 0, n);
+				bytesFed += n;
+			}
+		}
+	}
+	
+	/*
+	 * Writes the contents of the channel until its end
+	 */
+	private void feedChannel(OutputStream stdin) throws IOException
+	{
+		ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+		
+		while ( channel.read(chunk) >= 0 )
+		{
+			// fill the chunk as much as possible before writing
+			if ( chunk.hasRemaining() && chunk.position()<chunkSize/2 )
+			{
+				continue;
+			}
+			
+			stdin.write(chunk.array(), 0, chunk.position());
+			bytesFed += chunk.position();
+			chunk.clear();
+		}
+		
+		if ( chunk.position() > 0 )
+		{
+			stdin.write(chunk.array(), 0, chunk.position());
+			bytesFed += chunk.position();
+		}
+	}
+}
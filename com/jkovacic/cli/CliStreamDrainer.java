@@ -0,0 +1,225 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * A utility class that drains a command's output stream (stdout or stderr)
+ * line by line until the end of the stream is reached. Each line is
+ * passed to an ICliLineListener.
+ *
+ * A command may block when any of its output pipes is full. If both streams
+ * are read by the same thread, one of them is inevitably neglected while the
+ * thread is blocked on the other one, so a command, producing lots of output
+ * to stderr, could stall forever. For that reason, one stream is typically
+ * drained by the calling thread and the other one by a thread from a shared
+ * pool, owned by this class.
+ *
+ * @author Jernej Kovacic
+ */
+final class CliStreamDrainer implements Callable<Void>
+{
+	/** Default maximum number of pooled draining threads */
+	static final int DEFAULT_MAX_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+	
+	/*
+	 * Draining threads are only needed while commands are running and are
+	 * reused by subsequent commands. They are daemon threads so they never
+	 * prevent the JVM from exiting.
+	 * 
+	 * At most DEFAULT_MAX_THREADS (see setMaxThreads()) threads are pooled.
+	 * A draining task must never be queued (its command would stall on 
+	 * a full pipe until a pooled thread is released), so when all pooled
+	 * threads are busy, the task is run by a transient thread of its own.
+	 */
+	private static final ThreadPoolExecutor pool = createPool();
+	
+	private static ThreadPoolExecutor createPool()
+	{
+		final ThreadFactory overflow = new CliAsync.DaemonThreadFactory("cli-drainer-overflow-");
+		
+		return new ThreadPoolExecutor(
+				0, DEFAULT_MAX_THREADS, 60L, TimeUnit.SECONDS, 
+				new SynchronousQueue<Runnable>(), 
+				new CliAsync.DaemonThreadFactory("cli-drainer-"),
+				new RejectedExecutionHandler()
+				{
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+					{
+						overflow.newThread(task).start();
+					}
+				});
+	}
+
+	// the stream to be drained
+	private InputStream stream = null;
+	// the callback class, receiving lines
+	private ICliLineListener listener = null;
+	// is the stream the command's stderr?
+	private boolean stderr = false;
+
+	/*
+	 * Constructor
+	 *
+	 * @param stream - the stream to be drained
+	 * @param listener - the class that will receive the stream's lines
+	 * @param stderr - true if the stream is stderr, false if it is stdout
+	 */
+	private CliStreamDrainer(InputStream stream, ICliLineListener listener, boolean stderr)
+	{
+		this.stream = stream;
+		this.listener = listener;
+		this.stderr = stderr;
+	}
+
+	/*
+	 * Reads the whole stream and passes its lines to the listener.
+	 *
+	 * @return nothing (null)
+	 *
+	 * @throws IOException if reading fails
+	 */
+	public Void call() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+		String line = null;
+
+		while ( null != (line = reader.readLine()) )
+		{
+			if ( true == stderr )
+			{
+				listener.stderrLine(line);
+			}
+			else
+			{
+				listener.stdoutLine(line);
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Drains the stream by the calling thread.
+	 *
+	 * @param stream - the stream to be drained
+	 * @param listener - the class that will receive the stream's lines
+	 * @param stderr - true if the stream is stderr, false if it is stdout
+	 *
+	 * @throws IOException if reading fails
+	 */
+	static void drain(InputStream stream, ICliLineListener listener, boolean stderr) throws IOException
+	{
+		new CliStreamDrainer(stream, listener, stderr).call();
+	}
+
+	/*
+	 * Starts draining the stream by a pooled thread and returns immediately.
+	 * Use await() to wait for its completion.
+	 *
+	 * @param stream - the stream to be drained
+	 * @param listener - the class that will receive the stream's lines
+	 * @param stderr - true if the stream is stderr, false if it is stdout
+	 *
+	 * @return a handle to the pending result
+	 */
+	static Future<Void> drainInBackground(InputStream stream, ICliLineListener listener, boolean stderr)
+	{
+		return pool.submit(new CliStreamDrainer(stream, listener, stderr));
+	}
+
+	/*
+	 * Runs any reading task (e.g. one that stores the stream in another form)
+	 * by a pooled thread and returns immediately.
+	 * Use await() to obtain its result.
+	 *
+	 * @param task - a task that reads a stream
+	 *
+	 * @return a handle to the pending result
+	 */
+	static <T> Future<T> inBackground(Callable<T> task)
+	{
+		return pool.submit(task);
+	}
+
+	/*
+	 * @return an executor that runs each task immediately, by a pooled or a transient
+	 *         thread, e.g. for long operations that other threads wait for
+	 */
+	static Executor executor()
+	{
+		return pool;
+	}
+	
+	/*
+	 * Sets the maximum number of pooled draining threads
+	 * 
+	 * @param max - maximum number of pooled threads (at least 1)
+	 */
+	static void setMaxThreads(int max)
+	{
+		pool.setMaximumPoolSize(Math.max(max, 1));
+	}
+	
+	/*
+	 * @return maximum number of pooled draining threads
+	 */
+	static int getMaxThreads()
+	{
+		return pool.getMaximumPoolSize();
+	}
+	
+	/*
+	 * Waits until the background draining (started by drainInBackground or inBackground) completes.
+	 * Runtime exceptions, thrown by the listener, are rethrown.
+	 *
+	 * @param pending - a handle, returned by drainInBackground or inBackground
+	 *
+	 * @return result of the task
+	 *
+	 * @throws IOException if reading failed or the wait was interrupted
+	 */
+	static <T> T await(Future<T> pending) throws IOException
+	{
+		try
+		{
+			return pending.get();
+		}
+		catch ( ExecutionException ex )
+		{
+			if ( ex.getCause() instanceof IOException )
+			{
+				throw (IOException) ex.getCause();
+			}
+
+			if ( ex.getCause() instanceof RuntimeException )
+			{
+				throw (RuntimeException) ex.getCause();
+			}
+
+			throw new IOException("Draining of the stream failed: " + ex.getCause());
+		}
+		catch ( InterruptedException ex )
+		{
+			// preserve the interrupt status for the caller
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while draining the stream");
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Implementation of ICliProcessor that does not store the command's output.
+ * Instead, each line of stdout and stderr is passed to an ICliLineListener
+ * as soon as it arrives. This way commands, producing huge amounts of
+ * output, can be processed with a constant memory footprint.
+ * 
+ * As nothing is stored, outStr and errStr of the returned CliOutput
+ * are always null. Stdin is ignored.
+ * 
+ * Like CliNonInteractive, the class is not stateful (besides the listener)
+ * and can be passed to any implementation of IExec.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see ICliLineListener
+ */
+public class CliStreaming implements ICliProcessor 
+{
+	// the callback class for lines of output
+	private ICliLineListener listener = null;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param listener - an instance of a class whose callbacks will process each line of the output
+	 */
+	public CliStreaming(ICliLineListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	/**
+	 * Passes commands output data (from stdout and stderr) line by line to the listener. 
+	 *
+	 * @param stdinStream - OutputStream of stdin (ignored in this class, only declared because of the interface)
+	 * @param stdoutStream - InputStream of stdout
+	 * @param stderrStream - InputStream of stderr
+	 * 
+	 * @return an instance of CliOutput with no lines of output (the exit code will be set by the caller)
+	 * 
+	 * @throws CliException when an error occurs
+	 */
+	public CliOutput process(OutputStream stdinStream, InputStream stdoutStream, InputStream stderrStream) throws CliException 
+	{
+		// check of input parameters
+		if ( null==stdoutStream || null==stderrStream )
+		{
+			throw new CliException("Output streams not provided");
+		}
+		
+		if ( null == listener )
+		{
+			throw new CliException("No line listener provided");
+		}
+		
+		// stderr is drained by a pooled thread, stdout by the calling one
+		final InputStream outStream = stdoutStream;
+		final InputStream errStream = stderrStream;
+		final AtomicReference<RuntimeException> errFailure = new AtomicReference<RuntimeException>();
+		Future<Void> pendingErr = CliStreamDrainer.inBackground(new Callable<Void>()
+				{
+					public Void call() throws IOException
+					{
+						try
+						{
+							CliStreamDrainer.drain(errStream, listener, true);
+						}
+						catch ( RuntimeException ex )
+						{
+							/*
+							 * Stderr is not read anymore, so the command may block on it and never
+							 * close stdout. Stdout is closed to unblock the calling thread.
+							 */
+							errFailure.set(ex);
+							closeQuietly(outStream);
+							throw ex;
+						}
+						
+						return null;
+					}
+				});
+		
+		try
+		{
+			try
+			{
+				CliStreamDrainer.drain(stdoutStream, listener, false);
+			}
+			catch ( IOException ex )
+			{
+				abandon(stdoutStream, pendingErr);
+				
+				// stdout may have been closed because the listener failed on stderr
+				if ( null != errFailure.get() )
+				{
+					throw errFailure.get();
+				}
+				
+				throw ex;
+			}
+			catch ( RuntimeException ex )
+			{
+				abandon(stdoutStream, pendingErr);
+				throw ex;
+			}
+			
+			CliStreamDrainer.await(pendingErr);
+		}
+		catch ( IOException ex )
+		{
+			throw new CliException("IO error while reading stdout or stderr");
+		}
+		catch ( RuntimeException ex )
+		{
+			throw new CliException("Line listener failed: " + ex.getMessage());
+		}
+		
+		return new CliOutput();
+	}
+	
+	/*
+	 * Stops processing after a failure. The command may still be running and
+	 * would block on its full stdout, so its stderr would never end. Stdout is 
+	 * closed and stderr is abandoned, its draining ends when the command's 
+	 * streams are closed.
+	 * 
+	 * @param stdoutStream - the command's stdout
+	 * @param pendingErr - draining of the command's stderr
+	 */
+	private static void abandon(InputStream stdoutStream, Future<Void> pendingErr)
+	{
+		closeQuietly(stdoutStream);
+		pendingErr.cancel(true);
+	}
+	
+	/*
+	 * Closes a stream, ignoring any errors
+	 */
+	private static void closeQuietly(InputStream stream)
+	{
+		try
+		{
+			stream.close();
+		}
+		catch ( IOException ex )
+		{
+			// the original error is reported
+		}
+	}
+}
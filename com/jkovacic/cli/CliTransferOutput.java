@@ -0,0 +1,106 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.cli;
+
+/**
+ * Results of a command whose stdout was transferred to a channel
+ * (see CliChannelSink) instead of being stored as lines. Besides the exit code
+ * and lines of stderr (as in CliOutput), the number of transferred bytes and
+ * the throughput are available. outStr is never populated.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliChannelSink
+ */
+public class CliTransferOutput extends CliOutput 
+{
+	// number of bytes, transferred from stdout to the channel
+	private long bytes = 0;
+	// duration of the transfer in nanoseconds
+	private long nanos = 0;
+	// waits of the reader and the writer when a ring of buffers is used (see CliChannelSink.setRingSize)
+	private long ringFullWaits = 0;
+	private long ringEmptyWaits = 0;
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param bytes - number of transferred bytes
+	 * @param nanos - duration of the transfer in nanoseconds
+	 */
+	CliTransferOutput(long bytes, long nanos)
+	{
+		super();
+		this.bytes = bytes;
+		this.nanos = nanos;
+	}
+	
+	/**
+	 * @return number of bytes, transferred from stdout to the channel
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+	
+	/**
+	 * @return duration of the transfer in milliseconds
+	 */
+	public long getElapsedMillis()
+	{
+		return nanos / 1000000L;
+	}
+	
+	/**
+	 * @return average throughput of the transfer in bytes per second
+	 */
+	public double getBytesPerSecond()
+	{
+		return ( nanos<=0 ? 0.0 : bytes * 1e9 / nanos );
+	}
+	
+	/**
+	 * Only applicable when the transfer used a ring of buffers.
+	 * A high number indicates that the target channel was slower than the command.
+	 * 
+	 * @return how many times reading of stdout waited for a free buffer
+	 */
+	public long getRingFullWaits()
+	{
+		return ringFullWaits;
+	}
+	
+	/**
+	 * Only applicable when the transfer used a ring of buffers.
+	 * A high number indicates that the command was slower than the target channel.
+	 * 
+	 * @return how many times writing into the target channel waited for data
+	 */
+	public long getRingEmptyWaits()
+	{
+		return ringEmptyWaits;
+	}
+	
+	/*
+	 * Sets statistics of the ring of buffers, only called by CliChannelSink
+	 */
+	void setRingWaits(long fullWaits, long emptyWaits)
+	{
+		this.ringFullWaits = fullWaits;
+		this.ringEmptyWaits = emptyWaits;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+/**
+ * Interface with declaration of callbacks, invoked by CliStreaming
+ * for each line of the command's outputs as soon as it arrives.
+ * Implementing classes may filter, aggregate or forward the output
+ * without ever holding all of it in memory.
+ * 
+ * Note that stdout and stderr are drained simultaneously by different
+ * threads, so both methods may be called concurrently. Lines of each
+ * stream are, however, always passed in their original order.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliStreaming
+ */
+public interface ICliLineListener 
+{
+	/**
+	 * Called for each line, written by the command to its stdout.
+	 * 
+	 * @param line - a line of stdout, without the line separator
+	 */
+	public void stdoutLine(String line);
+	
+	/**
+	 * Called for each line, written by the command to its stderr.
+	 * 
+	 * @param line - a line of stderr, without the line separator
+	 */
+	public void stderrLine(String line);
+}
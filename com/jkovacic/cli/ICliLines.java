@@ -0,0 +1,50 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.cli;
+
+/**
+ * An interface to a compactly stored sequence of lines of a command's output.
+ * Implementations are not required to keep each line as a separate String,
+ * lines are typically only decoded when requested.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see CliOutput
+ */
+public interface ICliLines 
+{
+	/**
+	 * @return number of stored lines
+	 */
+	public int count();
+	
+	/**
+	 * Returns the requested line
+	 * 
+	 * @param index - index of the line (between 0 and count()-1)
+	 * 
+	 * @return the line without the line separator
+	 * 
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public String get(int index);
+	
+	/**
+	 * @return all lines as an array of strings
+	 */
+	public String[] toArray();
+}
@@ -16,6 +16,10 @@ limitations under the License.
 
 package com.jkovacic.cli;
 
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  * An interface that all CLI execution classes must implement.
  * 
@@ -30,6 +34,9 @@ package com.jkovacic.cli;
  * its execution) and where there is no need to control it via command's stdin and/or 
  * control it depending on stdout and/or stderr. 
  * 
+ * Commands may also be executed asynchronously by execAsync which returns
+ * a CompletableFuture. Cancelling the future aborts the command.
+ * 
  * @author Jernej Kovacic
  *
  * @see CliOutput, CliLocal, CliSsh, CliRexec, CliRsh
@@ -48,6 +55,60 @@ public interface IExec
 	 */
 	public CliOutput exec(ICliProcessor processor, String command) throws CliException;
 	
+	/**
+	 * Execute a command and process it with the class implementing ICliProcessor.
+	 * The command can be aborted from another thread via the handle.
+	 * 
+	 * @param processor - an instance of a class that processes the command
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws CliException when execution fails for any reason or is aborted
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws CliException;
+	
+	/**
+	 * Execute a command with a deadline and process it with the class implementing ICliProcessor.
+	 * If the command does not complete in time, it is aborted (e.g. the SSH channel is 
+	 * closed and the remote process is signalled where the protocol allows it, a local
+	 * process is destroyed) and a CliOutput with timedOut set is returned.
+	 * 
+	 * @param processor - an instance of a class that processes the command
+	 * @param command - full command to execute, given as one line
+	 * @param timeout - maximum time for the command's execution
+	 * @param unit - time unit of 'timeout'
+	 * 
+	 * @return an instance of CliOutput with results of the executed command or marked as timed out
+	 * 
+	 * @throws CliException when execution fails for any other reason
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, long timeout, TimeUnit unit) throws CliException;
+	
+	/**
+	 * Asynchronously execute a command and process it with the class implementing ICliProcessor.
+	 * Cancelling the returned future aborts the command (e.g. closes the SSH channel).
+	 * 
+	 * @param processor - an instance of a class that processes the command
+	 * @param command - full command to execute, given as one line
+	 * @param executor - an executor that will run the command (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes with the results of the executed command
+	 */
+	public CompletableFuture<CliOutput> execAsync(ICliProcessor processor, String command, Executor executor);
+	
+	/**
+	 * Asynchronously execute a command by CliAsync's default executor
+	 * and process it with ClinonInteractive.
+	 * Cancelling the returned future aborts the command.
+	 * 
+	 * @param command - full command to execute, given as one line
+	 * 
+	 * @return a future that completes with the results of the executed command
+	 */
+	public CompletableFuture<CliOutput> execAsync(String command);
+	
 	/**
 	 * Execute a command and process it with ClinonInteractive.
 	 * The function is suitable for non-interactive command execution
@@ -88,6 +149,46 @@ public interface IExec
 	 */
 	public CliOutput exec(String[] commands) throws CliException;
 	
+	/**
+	 * Execute a command and write its stdout directly into a channel as raw bytes
+	 * (no charset decoding or splitting into lines), e.g. into a local file.
+	 * Stderr is collected as lines.
+	 * 
+	 * @param command - full command to execute, given as one line
+	 * @param target - channel to write the command's stdout into (not closed by the method)
+	 * 
+	 * @return exit code, stderr lines and transfer statistics of the executed command
+	 * 
+	 * @throws CliException when execution fails for any reason
+	 */
+	public CliTransferOutput execToChannel(String command, WritableByteChannel target) throws CliException;
+	
+	/**
+	 * Execute a batch of independent commands in a single invocation
+	 * (e.g. one SSH channel or one rexec connection). Each command's outputs
+	 * are processed separately by the class implementing ICliProcessor.
+	 * 
+	 * @param processor - an instance of a class that processes each command
+	 * @param commands - a list of commands, each one given as one line
+	 * 
+	 * @return a list of CliOutputs, one for each command, in the same order as commands
+	 * 
+	 * @throws CliException when execution fails for any reason
+	 */
+	public List<CliOutput> execBatch(ICliProcessor processor, List<String> commands) throws CliException;
+	
+	/**
+	 * Execute a batch of independent commands in a single invocation
+	 * and process each one with CliNonInteractive.
+	 * 
+	 * @param commands - a list of commands, each one given as one line
+	 * 
+	 * @return a list of CliOutputs, one for each command, in the same order as commands
+	 * 
+	 * @throws CliException when execution fails for any reason
+	 */
+	public List<CliOutput> execBatch(List<String> commands) throws CliException;
+	
 	/**
 	 * Prepares the CLI environment where applicable, e.g. establish a SSH connection, etc.
 	 * Typically it is called before the first exec is performed.
@@ -99,6 +200,17 @@ public interface IExec
 	 */
 	public void prepare() throws CliException;
 	
+	/**
+	 * Asynchronously prepares the CLI environment where applicable.
+	 * If the returned future is cancelled, the environment is cleaned up
+	 * as soon as the preparation completes.
+	 * 
+	 * @param executor - an executor that will run the preparation (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes when the environment is prepared
+	 */
+	public CompletableFuture<Void> prepareAsync(Executor executor);
+	
 	/**
 	 * Cleans up the CLI environment where applicable, e.g. disconnects a SSH connection, etc.
 	 * Typically it is called after all execs have been performed. 
@@ -51,4 +51,18 @@ public interface Rclient
 	 * @throws RException if it fails
 	 */
 	public abstract CliOutput exec(ICliProcessor processor, String command) throws RException;
+	
+	/**
+	 * Executes a remote command over the r* daemon.
+	 * Aborting the command via the handle closes the connection.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command to be executed remotely
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return output of the command
+	 * 
+	 * @throws RException if it fails or is aborted
+	 */
+	public abstract CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws RException;
 }
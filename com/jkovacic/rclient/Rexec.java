@@ -16,6 +16,8 @@ limitations under the License.
 
 package com.jkovacic.rclient;
 
+import com.jkovacic.cli.*;
+
 /**
  * An abstract class for rexec functionality.
  * 
@@ -47,4 +49,19 @@ public abstract class Rexec implements Rclient
 	 * @return true/false
 	 */
 	public abstract boolean isConnected();
+	
+	/**
+	 * Executes a remote command over the r* daemon
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command to be executed remotely
+	 * 
+	 * @return output of the command
+	 * 
+	 * @throws RException if it fails
+	 */
+	public CliOutput exec(ICliProcessor processor, String command) throws RException
+	{
+		return exec(processor, command, null);
+	}
 }
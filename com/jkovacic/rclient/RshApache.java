@@ -115,14 +115,17 @@ public final class RshApache extends Rsh
 	/**
 	 * Executes a remote command over the r* daemon
 	 * 
+	 * Aborting the command via the handle closes the connection.
+	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command to be executed remotely
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return output of the command
 	 * 
-	 * @throws RException if it fails
+	 * @throws RException if it fails or is aborted
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws RException 
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws RException 
 	{
 		CliOutput retVal = null;
 		
@@ -139,24 +142,61 @@ public final class RshApache extends Rsh
 		}
 		
 		// connection is established, try to exec the command remotely
+		final RCommandClient client = rshContext;
 		try
 		{
-			rshContext.rexec(cred.getUsername(), cred.getLocalUsername(), command, true);
+			client.rexec(cred.getUsername(), cred.getLocalUsername(), command, true);
 		}
 		catch ( IOException ex )
 		{
 			throw new RException("Command execution failed");
 		}
 		
+		// aborting the command means closing the connection
+		if ( null != handle )
+		{
+			handle.attach(new Runnable()
+					{
+						public void run()
+						{
+							try
+							{
+								client.disconnect();
+							}
+							catch ( IOException ex )
+							{
+								// not much to do, even if disconnection has failed
+							}
+						}
+					});
+		}
+		
 		// ... and process its output
 		try
 		{
-			retVal = processor.process(rshContext.getOutputStream(), rshContext.getInputStream(), rshContext.getErrorStream() );
+			retVal = processor.process(client.getOutputStream(), client.getInputStream(), client.getErrorStream() );
 		}
 		catch ( CliException ex )
 		{
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new RException("Command execution aborted");
+			}
+			
 			throw new RException("Could not process output streams");
 		}
+		finally
+		{
+			if ( null != handle )
+			{
+				handle.detach();
+			}
+		}
+		
+		if ( null!=handle && true==handle.isAborted() )
+		{
+			throw new RException("Command execution aborted");
+		}
 		
 		// processor.process returns when the remote process is terminated
 		
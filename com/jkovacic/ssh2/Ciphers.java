@@ -31,6 +31,10 @@ import com.jkovacic.util.*;
  */
 public enum Ciphers implements ISshEncryptionAlgorithmFamily
 {
+	// authenticated encryption (AEAD), the negotiated HMAC algorithm is not used with them
+	CHACHA20_POLY1305("chacha20-poly1305@openssh.com"),
+	AES256_GCM("aes256-gcm@openssh.com"),
+	AES128_GCM("aes128-gcm@openssh.com"),
 	AES256_CTR("aes256-ctr"),
 	AES256_CBC("aes256-cbc"),
 	TWOFISH256_CTR("twofish256-ctr"),
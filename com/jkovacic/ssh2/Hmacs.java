@@ -32,6 +32,12 @@ import com.jkovacic.util.*;
 
 public enum Hmacs implements ISshEncryptionAlgorithmFamily
 {
+	// "encrypt-then-mac" variants, the MAC is calculated over the encrypted packet
+	SHA2_512_ETM("hmac-sha2-512-etm@openssh.com"),
+	SHA2_256_ETM("hmac-sha2-256-etm@openssh.com"),
+	SHA1_ETM("hmac-sha1-etm@openssh.com"),
+	SHA2_512("hmac-sha2-512"),
+	SHA2_256("hmac-sha2-256"),
 	SHA1("hmac-sha1"),
 	MD5("hmac-md5"),
 	SHA1_96("hmac-sha1-96"),
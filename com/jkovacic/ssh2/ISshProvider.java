@@ -0,0 +1,63 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+
+package com.jkovacic.ssh2;
+
+/**
+ * A service provider interface for implementations of SSH functionality 
+ * (classes, derived from Ssh2). Providers are discovered by java.util.ServiceLoader,
+ * i.e. a jar with a provider must list its class in the file
+ * META-INF/services/com.jkovacic.ssh2.ISshProvider. This way, third party 
+ * implementations may be used without any modification of factories.
+ * 
+ * Providers are instantiated when the first SSH instance is requested by its 
+ * provider's name (see SshFactory.getInstance()). A provider should not refer to 
+ * its 3rd party library before getInstance() is called, so its mere registration
+ * does not load the library and an application only needs to ship libraries
+ * it actually uses.
+ * 
+ * Implementations must be public and have a public constructor without arguments.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see SshFactory
+ */
+public interface ISshProvider 
+{
+	/**
+	 * @return name of the provider (case insensitive), e.g. "jsch"
+	 */
+	public String getName();
+	
+	/**
+	 * @return whether the provider's 3rd party library is available on the class path
+	 */
+	public boolean isAvailable();
+	
+	/**
+	 * Instantiates the provider's implementation of Ssh2.
+	 * 
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 * 
+	 * @return an instance of a class, derived from Ssh2
+	 * 
+	 * @throws SshException if any SSH parameters are missing
+	 */
+	public Ssh2 getInstance(HostId host, UserCredentials user, EncryptionAlgorithms algorithms) throws SshException;
+}
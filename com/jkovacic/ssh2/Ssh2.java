@@ -20,6 +20,7 @@ import com.jkovacic.cli.*;
 import com.jkovacic.cryptoutil.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An abstract class with some common (independent of the 3rd party library) 
@@ -63,7 +64,23 @@ public abstract class Ssh2
 	protected String[] compAlgs = null;
 	
 	// an internal state variable indicating whether a connection is established or not
-	protected boolean isConnected = false;
+	// (volatile as it may be checked by threads executing commands concurrently)
+	protected volatile boolean isConnected = false;
+	
+	/**
+	 * Default maximum number of concurrently open channels per session,
+	 * equal to the default value of OpenSSH server's setting 'MaxSessions'
+	 */
+	public static final int DEFAULT_MAX_CHANNELS = 10;
+	
+	/*
+	 * Several commands may be executed concurrently over the same connection,
+	 * each one over its own channel. As SSH servers typically limit the number of
+	 * open channels per connection (see 'MaxSessions' in sshd_config), 
+	 * the number of concurrent channels is limited by a semaphore.
+	 */
+	private volatile Semaphore channelSlots = new Semaphore(DEFAULT_MAX_CHANNELS, true);
+	private volatile int maxChannels = DEFAULT_MAX_CHANNELS;
 	
 	/**
 	 * Establish a connection to a SSH server
@@ -79,6 +96,46 @@ public abstract class Ssh2
 	 */
 	public abstract void disconnect() throws SshException;
 	
+	/**
+	 * Asynchronously establish a connection to a SSH server.
+	 * If the returned future is cancelled, the connection is terminated
+	 * as soon as it is established.
+	 * 
+	 * @param executor - an executor that will establish the connection (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes when the connection is established
+	 */
+	public CompletableFuture<Void> connectAsync(Executor executor)
+	{
+		final CliExecHandle handle = new CliExecHandle();
+		
+		return CliAsync.run(new CliAsync.IOperation<Void>()
+				{
+					public Void run() throws SshException
+					{
+						connect();
+						
+						// if cancelled in the meantime, the connection is terminated immediately
+						handle.attach(new Runnable()
+								{
+									public void run()
+									{
+										try
+										{
+											disconnect();
+										}
+										catch ( SshException ex )
+										{
+											// nothing to do, the future is cancelled anyway
+										}
+									}
+								});
+						
+						return null;
+					}
+				}, handle, executor);
+	}
+	
 	/*
 	 * Constructor 
 	 * 
@@ -132,7 +189,190 @@ public abstract class Ssh2
 	 * 
 	 * @throws SshException when execution fails for any reason
 	 */
-	public abstract CliOutput exec(ICliProcessor processor, String command) throws SshException;
+	public CliOutput exec(ICliProcessor processor, String command) throws SshException
+	{
+		return exec(processor, command, null);
+	}
+	
+	/**
+	 * Execute a command over SSH 'exec'. 
+	 * Aborting the command via the handle closes the exec channel.
+	 * 
+	 * The method may be called by several threads concurrently, each command
+	 * is executed over its own channel of the same connection. If the maximum
+	 * number of open channels (see setMaxChannels()) is reached, the method
+	 * waits until another command completes.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws SshException when execution fails for any reason or is aborted
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, CliExecHandle handle) throws SshException
+	{
+		Semaphore slots = acquireChannel(handle);
+		
+		try
+		{
+			return execChannel(processor, command, handle);
+		}
+		finally
+		{
+			slots.release();
+		}
+	}
+	
+	/**
+	 * Execute a command over SSH 'exec' with a deadline. If the command does
+	 * not complete in time, it is aborted the same way as via CliExecHandle.abort()
+	 * and a CliOutput with timedOut set is returned.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param timeout - maximum time for the command's execution (including waiting for a free channel)
+	 * @param unit - time unit of 'timeout'
+	 * 
+	 * @return an instance of CliOutput with results of the executed command or marked as timed out
+	 * 
+	 * @throws SshException when execution fails for any other reason
+	 */
+	public CliOutput exec(ICliProcessor processor, String command, long timeout, TimeUnit unit) throws SshException
+	{
+		CliExecHandle handle = new CliExecHandle(timeout, unit);
+		
+		try
+		{
+			return exec(processor, command, handle);
+		}
+		catch ( SshException ex )
+		{
+			if ( true == handle.isTimedOut() )
+			{
+				return CliOutput.timedOutResult();
+			}
+			
+			throw ex;
+		}
+		finally
+		{
+			handle.cancelDeadline();
+		}
+	}
+	
+	/**
+	 * Execute a command over a newly opened SSH 'exec' channel. 
+	 * Called by exec() when a channel slot is available, 
+	 * must be safe to call concurrently over the same connection.
+	 * Aborting the command via the handle must close the exec channel.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws SshException when execution fails for any reason or is aborted
+	 */
+	protected abstract CliOutput execChannel(ICliProcessor processor, String command, CliExecHandle handle) throws SshException;
+	
+	/**
+	 * Sets the maximum number of concurrently open channels over this connection.
+	 * It should not exceed the SSH server's limit ('MaxSessions' for OpenSSH).
+	 * 
+	 * @param max - maximum number of concurrent channels, at least 1
+	 * 
+	 * @throws SshException if 'max' is invalid or any commands are currently executing
+	 */
+	public synchronized void setMaxChannels(int max) throws SshException
+	{
+		if ( max < 1 )
+		{
+			throw new SshException("Invalid maximum number of channels");
+		}
+		
+		if ( channelSlots.availablePermits() != maxChannels )
+		{
+			throw new SshException("Cannot change the maximum number of channels while commands are executing");
+		}
+		
+		channelSlots = new Semaphore(max, true);
+		maxChannels = max;
+	}
+	
+	/**
+	 * @return maximum number of concurrently open channels over this connection
+	 */
+	public int getMaxChannels()
+	{
+		return maxChannels;
+	}
+	
+	/**
+	 * @return number of currently open exec channels (i.e. commands being executed)
+	 */
+	public int getActiveChannels()
+	{
+		return maxChannels - channelSlots.availablePermits();
+	}
+	
+	/*
+	 * Waits for a free channel slot. While waiting, the handle is checked periodically
+	 * so the command may be aborted before it is even started.
+	 * 
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return the semaphore the slot was acquired from (to be released after the command completes)
+	 * 
+	 * @throws SshException if aborted or interrupted while waiting
+	 */
+	private Semaphore acquireChannel(CliExecHandle handle) throws SshException
+	{
+		Semaphore slots = channelSlots;
+		
+		try
+		{
+			while ( false == slots.tryAcquire(100, TimeUnit.MILLISECONDS) )
+			{
+				if ( null!=handle && true==handle.isAborted() )
+				{
+					throw new SshException("Command execution aborted");
+				}
+			}
+		}
+		catch ( InterruptedException ex )
+		{
+			Thread.currentThread().interrupt();
+			throw new SshException("Interrupted while waiting for a free channel");
+		}
+		
+		return slots;
+	}
+	
+	/**
+	 * Asynchronously execute a command over SSH 'exec'.
+	 * Cancelling the returned future closes the exec channel.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param executor - an executor that will run the command (if null, CliAsync's default executor is used)
+	 * 
+	 * @return a future that completes with the results of the executed command
+	 */
+	public CompletableFuture<CliOutput> execAsync(final ICliProcessor processor, final String command, Executor executor)
+	{
+		final CliExecHandle handle = new CliExecHandle();
+		
+		return CliAsync.run(new CliAsync.IOperation<CliOutput>()
+				{
+					public CliOutput run() throws SshException
+					{
+						return exec(processor, command, handle);
+					}
+				}, handle, executor);
+	}
 	
 	/**
 	 * Execute a command over SSH 'exec' and process its output via CliNonInteractive
@@ -451,11 +691,29 @@ public abstract class Ssh2
 	 * Supported implementations of classes with implemented SSH functionality
 	 * (derived from this one).
 	 * 
-	 * At the moment only Ganymed SSH2 and Jsch are supported.
+	 * At the moment Ganymed SSH2, Jsch and Apache MINA SSHD are supported.
+	 * Other implementations may be registered as ISshProvider services
+	 * and instantiated by their providers' names.
 	 */
 	public static enum SshImpl
 	{
-		GANYMED,	// Ganymed SSH2
-		JSCH;       // Jsch
+		GANYMED(SshGanymedProvider.NAME),	// Ganymed SSH2
+		JSCH(SshJschProvider.NAME),       // Jsch
+		MINA(SshMinaProvider.NAME);       // Apache MINA SSHD
+		
+		private final String providerName;
+		
+		SshImpl(String providerName)
+		{
+			this.providerName = providerName;
+		}
+		
+		/**
+		 * @return name of the implementation's ISshProvider
+		 */
+		public String getProviderName()
+		{
+			return providerName;
+		}
 	}
 }
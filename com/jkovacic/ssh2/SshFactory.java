@@ -16,10 +16,16 @@ limitations under the License.
 
 package com.jkovacic.ssh2;
 
+import java.util.*;
+
 /**
  * This factory class is intended to be the only "legal" way
  * to create instances of Ssh2 (various classes with SSH functionality) 
  * 
+ * Besides the built-in implementations, any implementation, registered
+ * as an ISshProvider service, may be instantiated by its provider's name.
+ * Providers are discovered once, when an instance is first requested by name. 
+ * 
  * Methods are static so no instantiation is necessary 
  * 
  * @author Jernej Kovacic
@@ -67,4 +73,210 @@ public class SshFactory
 				
 		return new SshJsch(host, user, algorithms);
 	}
+	
+	/**
+	 * Instantiates an instance of SshMina, a Ssh2 implementation
+	 * based on the 3rd party library Apache MINA SSHD.
+	 * 
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 * 
+	 * @throws SshException if any SSH parameters are missing
+	 */
+	public static SshMina getMinaInstance(HostId host, UserCredentials user, EncryptionAlgorithms algorithms) throws SshException
+	{
+		// check of input parameters
+		if ( null==host || null==user || null==algorithms )
+		{
+			throw new SshException("Not all SSH parameters provided");
+		}
+				
+		return new SshMina(host, user, algorithms);
+	}
+	
+	/**
+	 * Instantiates one of implemented Ssh2 classes.
+	 * 
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 * 
+	 * @throws SshException if any SSH parameters are missing or the implementation is not supported
+	 */
+	public static Ssh2 getInstance(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algorithms) throws SshException
+	{
+		if ( null == which )
+		{
+			throw new SshException("No SSH implementation specified");
+		}
+		
+		return getInstance(which.getProviderName(), host, user, algorithms);
+	}
+	
+	/**
+	 * Instantiates an implementation of Ssh2 by a registered provider.
+	 * 
+	 * @param provider - name of the provider (case insensitive), e.g. "jsch"
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 * 
+	 * @throws SshException if any SSH parameters are missing or the provider (or its library) is not available
+	 * 
+	 * @see ISshProvider
+	 */
+	public static Ssh2 getInstance(String provider, HostId host, UserCredentials user, EncryptionAlgorithms algorithms) throws SshException
+	{
+		// check of input parameters
+		if ( null==host || null==user || null==algorithms )
+		{
+			throw new SshException("Not all SSH parameters provided");
+		}
+		
+		ISshProvider impl = getProvider(provider);
+		
+		if ( false == impl.isAvailable() )
+		{
+			throw new SshException("Library of SSH implementation '" + impl.getName() + "' not found on the class path");
+		}
+		
+		Ssh2 retVal = impl.getInstance(host, user, algorithms);
+		if ( null == retVal )
+		{
+			throw new SshException("SSH implementation '" + impl.getName() + "' returned no instance");
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * Returns a registered provider of a SSH implementation
+	 * 
+	 * @param name - name of the provider (case insensitive)
+	 * 
+	 * @return the provider
+	 * 
+	 * @throws SshException if no provider with the name is registered
+	 */
+	public static ISshProvider getProvider(String name) throws SshException
+	{
+		if ( null==name || 0==name.length() )
+		{
+			throw new SshException("No SSH implementation specified");
+		}
+		
+		ISshProvider retVal = Providers.REGISTERED.get(name.toLowerCase(Locale.ROOT));
+		if ( null == retVal )
+		{
+			throw new SshException("SSH implementation '" + name + "' not supported");
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * @return names of registered providers whose libraries are available on the class path
+	 */
+	public static List<String> getAvailableProviders()
+	{
+		List<String> retVal = new ArrayList<String>();
+		
+		for ( Map.Entry<String, ISshProvider> entry : Providers.REGISTERED.entrySet() )
+		{
+			if ( true == entry.getValue().isAvailable() )
+			{
+				retVal.add(entry.getKey());
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Checks whether a class is available, without initializing it
+	 * 
+	 * @param className - fully qualified name of the class
+	 * 
+	 * @return true if the class can be loaded
+	 */
+	static boolean isClassAvailable(String className)
+	{
+		try
+		{
+			Class.forName(className, false, SshFactory.class.getClassLoader());
+			return true;
+		}
+		catch ( ClassNotFoundException ex )
+		{
+			return false;
+		}
+		catch ( LinkageError ex )
+		{
+			return false;
+		}
+	}
+	
+	/*
+	 * Registry of providers, discovered when first needed (the holder
+	 * class is only initialized on its first access).
+	 */
+	private static final class Providers
+	{
+		static final Map<String, ISshProvider> REGISTERED = discover();
+		
+		/*
+		 * Discovers providers via ServiceLoader. The first provider with a name
+		 * takes precedence. Built-in providers are registered even when their
+		 * service file is not on the class path (e.g. when classes are not packaged in a jar).
+		 * 
+		 * @return providers, indexed by their lower case names
+		 */
+		private static Map<String, ISshProvider> discover()
+		{
+			Map<String, ISshProvider> retVal = new LinkedHashMap<String, ISshProvider>();
+			Iterator<ISshProvider> it = ServiceLoader.load(ISshProvider.class, SshFactory.class.getClassLoader()).iterator();
+			
+			while ( true )
+			{
+				try
+				{
+					if ( false == it.hasNext() )
+					{
+						break;
+					}
+					
+					register(retVal, it.next());
+				}
+				catch ( ServiceConfigurationError ex )
+				{
+					// a broken provider must not prevent others from being used
+				}
+			}
+			
+			register(retVal, new SshGanymedProvider());
+			register(retVal, new SshJschProvider());
+			register(retVal, new SshMinaProvider());
+			
+			return Collections.unmodifiableMap(retVal);
+		}
+		
+		/*
+		 * Registers a provider unless another one with the same name is already registered
+		 */
+		private static void register(Map<String, ISshProvider> registry, ISshProvider provider)
+		{
+			String name = provider.getName();
+			
+			if ( null!=name && name.length()>0 )
+			{
+				String key = name.toLowerCase(Locale.ROOT);
+				if ( false == registry.containsKey(key) )
+				{
+					registry.put(key, provider);
+				}
+			}
+		}
+	}
 }
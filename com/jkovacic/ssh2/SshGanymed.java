@@ -18,9 +18,13 @@ package com.jkovacic.ssh2;
 
 import com.jkovacic.cli.*;
 import com.jkovacic.cryptoutil.*;
+// explicitly imported as java.util also contains a Base64 class (since Java 8)
+import com.jkovacic.cryptoutil.Base64;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import ch.ethz.ssh2.*;
 
@@ -36,7 +40,7 @@ import ch.ethz.ssh2.*;
 */
 public final class SshGanymed extends Ssh2
 {
-	// Available algorithms, available via static methods of Connection:
+	// Available algorithms (others are available via static methods of Connection, see LibraryAlgorithms):
 	private static final String[] AVAILABLE_KEX_ALGS =
 		{ 
 		"diffie-hellman-group-exchange-sha1", 
@@ -44,20 +48,85 @@ public final class SshGanymed extends Ssh2
 		"diffie-hellman-group1-sha1"
         };
 	
-	private static final String[] AVAILABLE_HMAC_ALGS = Connection.getAvailableMACs();
-	
-	private static final String[] AVAILABLE_CIPHER_ALGS = Connection.getAvailableCiphers();
-		
-	private static final String[] AVAILABLE_PK_ALGS = Connection.getAvailableServerHostKeyAlgorithms();
-	
 	// The library does not support compression
 	private static final String[] AVAILABLE_COMP_ALGS =
 		{
 		"none"
 		};
 		
+	/*
+	 * Algorithms, reported by static methods of Connection. The holder class is
+	 * only initialized when they are first needed, so loading of this class 
+	 * (e.g. by setDrainExecutor()) does not load and initialize the library.
+	 */
+	private static final class LibraryAlgorithms
+	{
+		static final String[] AVAILABLE_HMAC_ALGS = Connection.getAvailableMACs();
+		
+		static final String[] AVAILABLE_CIPHER_ALGS = Connection.getAvailableCiphers();
+		
+		static final String[] AVAILABLE_PK_ALGS = Connection.getAvailableServerHostKeyAlgorithms();
+	}
+	
 	// Ganymed SSH connection context
-	private Connection sshconn = null;
+	private volatile Connection sshconn = null;
+	
+	/** Maximum number of threads of the default drain executor */
+	public static final int DEFAULT_MAX_DRAIN_THREADS = 64;
+	
+	/*
+	 * Executor that drains outputs of all commands (see SshGanymedDrainer).
+	 * Its threads are reused by subsequent commands and never prevent 
+	 * the JVM from exiting.
+	 */
+	private static volatile Executor drainExecutor = createDefaultDrainExecutor();
+	
+	/*
+	 * Creates the default drain executor, a pool of at most DEFAULT_MAX_DRAIN_THREADS
+	 * daemon threads. Drain tasks are never queued: when all pooled threads are busy,
+	 * a task is run by a transient overflow thread. A queued task would not drain its
+	 * channel, so a processor, waiting for it (e.g. a source command of CliPipeline,
+	 * writing into a sink's stdin), might block a pooled thread forever.
+	 * 
+	 * Virtual threads are not used, as the library waits for channel data 
+	 * within synchronized blocks, which pins virtual threads to their carriers.
+	 */
+	private static Executor createDefaultDrainExecutor()
+	{
+		final ThreadFactory overflow = daemonThreads("ssh-ganymed-drainer-overflow-");
+		
+		return new ThreadPoolExecutor(
+				0, DEFAULT_MAX_DRAIN_THREADS, 60L, TimeUnit.SECONDS, 
+				new SynchronousQueue<Runnable>(), 
+				daemonThreads("ssh-ganymed-drainer-"),
+				new RejectedExecutionHandler()
+				{
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+					{
+						overflow.newThread(task).start();
+					}
+				});
+	}
+	
+	/*
+	 * @param prefix - prefix of threads' names
+	 * 
+	 * @return a factory of numbered daemon threads
+	 */
+	private static ThreadFactory daemonThreads(final String prefix)
+	{
+		return new ThreadFactory()
+			{
+				private final AtomicInteger counter = new AtomicInteger(0);
+				
+				public Thread newThread(Runnable r)
+				{
+					Thread th = new Thread(r, prefix + counter.incrementAndGet());
+					th.setDaemon(true);
+					return th;
+				}
+			};
+	}
 	
 
 	/*
@@ -81,13 +150,13 @@ public final class SshGanymed extends Ssh2
 		availableKexAlgs = AVAILABLE_KEX_ALGS;
 		
 		// Hmac algorithms supported by the library
-		availableHmacAlgs = AVAILABLE_HMAC_ALGS;
+		availableHmacAlgs = LibraryAlgorithms.AVAILABLE_HMAC_ALGS;
 		
 		// Cipher algorithms supported by the library
-		availableCipherAlgs = AVAILABLE_CIPHER_ALGS;
+		availableCipherAlgs = LibraryAlgorithms.AVAILABLE_CIPHER_ALGS;
 
 		// Public key algorithms supported by the library
-		availablePublickeyAlgs = AVAILABLE_PK_ALGS;
+		availablePublickeyAlgs = LibraryAlgorithms.AVAILABLE_PK_ALGS;
 		
 		// The library does not support compression
 		availableCompAlgs = AVAILABLE_COMP_ALGS;
@@ -223,7 +292,7 @@ public final class SshGanymed extends Ssh2
 	 * 
 	 * @throws SshException if the connection fails for any reason
 	 */
-	public void connect() throws SshException
+	public synchronized void connect() throws SshException
 	{
 		// thoroughly check all settings
 		shortlistAndCheckAlgorithms();
@@ -245,7 +314,21 @@ public final class SshGanymed extends Ssh2
 			isConnected = false;
 			
 			// Instantiate a Connection class...
-			sshconn = new Connection(destination.hostname, destination.port);
+			final Connection conn = new Connection(destination.hostname, destination.port);
+			
+			// the library reports a broken connection (e.g. closed by the server) to monitors
+			conn.addConnectionMonitor(new ConnectionMonitor()
+					{
+						public void connectionLost(Throwable reason)
+						{
+							if ( conn == sshconn )
+							{
+								isConnected = false;
+							}
+						}
+					});
+			
+			sshconn = conn;
 			
 			// and set user selected algorithms (where the library allows it)
 			sshconn.setClient2ServerCiphers(cipherAlgs);
@@ -319,7 +402,7 @@ public final class SshGanymed extends Ssh2
 	 * 
 	 * @throws SshException if it fails
 	 */
-	public void disconnect() throws SshException
+	public synchronized void disconnect() throws SshException
 	{
 		if ( null != sshconn )
 		{
@@ -331,20 +414,34 @@ public final class SshGanymed extends Ssh2
 		isConnected = false;
 	}
 	
+	/**
+	 * @return true if the session is established and the library has not reported it as lost
+	 */
+	public boolean isConnected()
+	{
+		// isConnected is cleared by the connection monitor as soon as the connection breaks
+		return ( true==isConnected && null!=sshconn );
+	}
+	
 	/**
 	 * Execute a command over SSH 'exec'
 	 * 
 	 * Note that some SSH servers may not return the remote process's exit code.
 	 * CliOutput.EXITCODE_NOT_SET is set in such cases.
 	 * 
+	 * Aborting the command via the handle (also when its deadline expires)
+	 * closes the exec channel. Ganymed SSH2 does not support sending signals
+	 * to remote processes, closing of the channel typically terminates it.
+	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return an instance of CliOutput with results of the executed command
 	 * 
 	 * @throws CliException when execution fails for any reason
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws SshException
+	protected CliOutput execChannel(ICliProcessor processor, String command, CliExecHandle handle) throws SshException
 	{
 		CliOutput retVal = null;
 		Session sess = null;
@@ -355,8 +452,12 @@ public final class SshGanymed extends Ssh2
 			throw new SshException("No command specified");
 		}
 		
+		// the connection may be terminated by another thread at any time,
+		// so the reference is obtained only once
+		Connection conn = sshconn;
+		
 		// is connection established
-		if ( null == sshconn || false == isConnected )
+		if ( null == conn || false == isConnected )
 		{
 			throw new SshException("SSH connection not established");
 		}
@@ -364,26 +465,71 @@ public final class SshGanymed extends Ssh2
 		try
 		{
 			// Note that channel is called a "Session" by GanymedSSH2
-			// Its API for execution of commands is very simple
-			sess = sshconn.openSession();
-			sess.execCommand(command);
+			// Its API for execution of commands is very simple.
+			// Sessions may be opened concurrently over the same connection.
+			sess = conn.openSession();
+			
+			// aborting the command means closing its channel
+			if ( null != handle )
+			{
+				final Session channel = sess;
+				handle.attach(new Runnable()
+						{
+							public void run()
+							{
+								channel.close();
+							}
+						});
+			}
 			
-			// get output
 			try
 			{
-				retVal = processor.process(sess.getStdin(), new StreamGobbler(sess.getStdout()), new StreamGobbler(sess.getStderr()) );
+				sess.execCommand(command);
+				
+				// get output
+				try
+				{
+					// both outputs are drained by a single task on the shared executor
+					SshGanymedDrainer drainer = SshGanymedDrainer.start(sess, drainExecutor);
+					retVal = processor.process(sess.getStdin(), drainer.getStdout(), drainer.getStderr() );
+				}
+				catch ( CliException ex )
+				{
+					throw new SshException("Processing of output streams failed: " + ex.getMessage());
+				}
+				
+				// wait until the command execution completes, but not longer than the handle's deadline
+				// (0 means no timeout for Ganymed SSH2)
+				long timeout = 0;
+				if ( null!=handle && true==handle.hasDeadline() )
+				{
+					timeout = Math.max(handle.getRemainingMillis(), 1);
+				}
+				
+				int cond = sess.waitForCondition(
+						ChannelCondition.CLOSED | 
+						ChannelCondition.EXIT_SIGNAL |
+						ChannelCondition.EXIT_STATUS,
+	                    timeout);
+				
+				if ( 0 != (cond & ChannelCondition.TIMEOUT) )
+				{
+					// the deadline has expired, close the channel (if not done by the handle's timer yet)
+					handle.abort();
+				}
 			}
-			catch ( CliException ex )
+			finally
 			{
-				throw new SshException("Processing of output streams failed: " + ex.getMessage());
+				if ( null != handle )
+				{
+					handle.detach();
+				}
 			}
 			
-			// wait until the command execution completes
-			sess.waitForCondition(
-					ChannelCondition.CLOSED & 
-					ChannelCondition.EXIT_SIGNAL &
-					ChannelCondition.EXIT_STATUS,
-                    0);
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
+			}
 			
 			// command exit status is returned as Integer
 			Integer exitStatus = sess.getExitStatus();
@@ -403,12 +549,77 @@ public final class SshGanymed extends Ssh2
 		}
 		catch ( IOException ex )
 		{
+			closeQuietly(sess);
+			
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
+			}
+			
 			throw new SshException("Could not establish a SSH exec channel");
 		}
+		catch ( SshException ex )
+		{
+			// also ends draining of the channel's outputs
+			closeQuietly(sess);
+			
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
+			}
+			
+			throw ex;
+		}
 		
 		return retVal;
 	}
 	
+	/*
+	 * Closes the channel (if opened)
+	 */
+	private static void closeQuietly(Session sess)
+	{
+		if ( null != sess )
+		{
+			sess.close();
+		}
+	}
+	
+	/**
+	 * Sets the executor that drains outputs of all subsequently executed commands.
+	 * Each command occupies one of its threads while running (stdout and stderr 
+	 * are drained together). The executor should never queue tasks: a command,
+	 * waiting for a free thread, is not drained, which may deadlock processors
+	 * that depend on other commands (e.g. CliPipeline, CliStdinFeed).
+	 * A virtual thread executor is not recommended: GanymedSSH2 waits for channel
+	 * data within synchronized blocks, which pins virtual threads to their carriers
+	 * (before JDK 24).
+	 * 
+	 * By default, a shared pool of at most DEFAULT_MAX_DRAIN_THREADS daemon threads is used,
+	 * commands in excess are drained by transient overflow threads.
+	 * 
+	 * @param executor - the new executor
+	 * 
+	 * @throws SshException if no executor is provided
+	 */
+	public static void setDrainExecutor(Executor executor) throws SshException
+	{
+		if ( null == executor )
+		{
+			throw new SshException("No executor provided");
+		}
+		
+		drainExecutor = executor;
+	}
+	
+	/**
+	 * @return the executor that drains outputs of commands
+	 */
+	public static Executor getDrainExecutor()
+	{
+		return drainExecutor;
+	}
+	
 	/*
 	 * Destructor.
 	 * 
@@ -439,7 +650,7 @@ public final class SshGanymed extends Ssh2
 	 */
 	public static String[] availableCipherAlgorithms()
 	{
-		return AVAILABLE_CIPHER_ALGS;
+		return LibraryAlgorithms.AVAILABLE_CIPHER_ALGS;
 	}
 	
 	/**
@@ -447,7 +658,7 @@ public final class SshGanymed extends Ssh2
 	 */
 	public static String[] availableHmacAlgorithms()
 	{
-		return AVAILABLE_HMAC_ALGS;
+		return LibraryAlgorithms.AVAILABLE_HMAC_ALGS;
 	}
 	
 	/**
@@ -455,7 +666,7 @@ public final class SshGanymed extends Ssh2
 	 */
 	public static String[] availablePublicKeyAlgorithms()
 	{
-		return AVAILABLE_PK_ALGS;
+		return LibraryAlgorithms.AVAILABLE_PK_ALGS;
 	}
 	
 	/**
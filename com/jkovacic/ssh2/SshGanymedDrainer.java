@@ -0,0 +1,356 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.ssh2;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import ch.ethz.ssh2.*;
+
+/**
+ * Drains stdout and stderr of a GanymedSSH2 exec channel ("Session")
+ * into memory buffers, from where they are read by an ICliProcessor.
+ * 
+ * Both streams of a channel share the same SSH window, so if one of them
+ * is not read, the other one may stall as well. For that reason GanymedSSH2
+ * recommends its StreamGobbler, which starts a new thread for each stream.
+ * This class drains both streams of a channel by a single task, waiting
+ * for data via Session.waitForCondition(), and runs it on a shared executor
+ * (see SshGanymed.setDrainExecutor()). The executor must not queue tasks:
+ * while a task waits for a free thread, its channel is not drained, and 
+ * the threads may be held by processors that wait for that very channel 
+ * (e.g. a CliPipeline source, writing into the sink's stdin).
+ * 
+ * Unlike StreamGobbler, at most MAX_BUFFERED bytes of each stream are buffered
+ * in memory until they are read. When a buffer is full, its stream is not read
+ * anymore, so the library does not enlarge the channel's window and the remote
+ * command is throttled by SSH flow control until the application catches up.
+ * Hence processors must read both streams concurrently (as all processors
+ * of the package com.jkovacic.cli do).
+ * 
+ * @author Jernej Kovacic
+ */
+final class SshGanymedDrainer implements Runnable 
+{
+	// size of the buffer for reading channels' streams
+	private static final int READ_BUFFER_SIZE = 32 << 10;
+	
+	// maximum number of buffered bytes per stream (1 MiB)
+	static final int MAX_BUFFERED = 1 << 20;
+	
+	// how long (in milliseconds) to wait for a full buffer to be read before the other stream is checked again
+	private static final long FULL_WAIT = 50L;
+	
+	private Session sess;
+	private InputStream stdout;
+	private InputStream stderr;
+	
+	private Buffer outBuffer = new Buffer();
+	private Buffer errBuffer = new Buffer();
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param sess - channel whose outputs will be drained
+	 */
+	private SshGanymedDrainer(Session sess)
+	{
+		this.sess = sess;
+		this.stdout = sess.getStdout();
+		this.stderr = sess.getStderr();
+	}
+	
+	/*
+	 * Starts draining of the channel's outputs
+	 * 
+	 * @param sess - channel whose outputs will be drained
+	 * @param executor - executor that will run the draining task
+	 * 
+	 * @return an instance of the class, providing the buffered streams
+	 * 
+	 * @throws SshException if the executor rejects the task
+	 */
+	static SshGanymedDrainer start(Session sess, Executor executor) throws SshException
+	{
+		SshGanymedDrainer retVal = new SshGanymedDrainer(sess);
+		
+		try
+		{
+			executor.execute(retVal);
+		}
+		catch ( RejectedExecutionException ex )
+		{
+			throw new SshException("Could not start draining of the channel's outputs");
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * @return buffered stdout of the channel
+	 */
+	InputStream getStdout()
+	{
+		return outBuffer;
+	}
+	
+	/*
+	 * @return buffered stderr of the channel
+	 */
+	InputStream getStderr()
+	{
+		return errBuffer;
+	}
+	
+	/*
+	 * Drains both streams until the remote side signals EOF or the channel is closed.
+	 * While a buffer is full, the task waits for the application to read it.
+	 */
+	public void run()
+	{
+		IOException error = null;
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		
+		try
+		{
+			while ( true )
+			{
+				boolean outFull = transfer(stdout, outBuffer, buf);
+				boolean errFull = transfer(stderr, errBuffer, buf);
+				
+				if ( true==outFull || true==errFull )
+				{
+					// the other stream is checked periodically, it may still have room
+					( true==outFull ? outBuffer : errBuffer ).awaitRoom(FULL_WAIT);
+					continue;  // while
+				}
+				
+				if ( 0==stdout.available() && 0==stderr.available() )
+				{
+					int cond = sess.waitForCondition(
+							ChannelCondition.STDOUT_DATA |
+							ChannelCondition.STDERR_DATA |
+							ChannelCondition.EOF |
+							ChannelCondition.CLOSED, 
+							0);
+					
+					if ( 0 == (cond & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) )
+					{
+						if ( 0 != (cond & (ChannelCondition.EOF | ChannelCondition.CLOSED)) )
+						{
+							// no more data will arrive
+							break;  // while
+						}
+						
+						continue;  // while
+					}
+				}
+			}
+		}
+		catch ( IOException ex )
+		{
+			error = ex;
+		}
+		finally
+		{
+			outBuffer.finish(error);
+			errBuffer.finish(error);
+		}
+	}
+	
+	/*
+	 * Moves currently available data from the stream into the buffer, as long as it has room
+	 * 
+	 * @return true if the stream has more data available, but the buffer is full
+	 */
+	private static boolean transfer(InputStream stream, Buffer buffer, byte[] buf) throws IOException
+	{
+		int avail;
+		while ( (avail = stream.available()) > 0 )
+		{
+			int room = buffer.room();
+			if ( 0 == room )
+			{
+				return true;
+			}
+			
+			int n = stream.read(buf, 0, Math.min(Math.min(avail, buf.length), room));
+			if ( n < 0 )
+			{
+				break;  // while
+			}
+			
+			buffer.append(buf, n);
+		}
+		
+		return false;
+	}
+	
+	/*
+	 * An in-memory FIFO (growing up to MAX_BUFFERED bytes), filled by the draining task
+	 * and read as an InputStream
+	 */
+	private static final class Buffer extends InputStream
+	{
+		private static final int INITIAL_CAPACITY = 8 << 10;
+		
+		private byte[] data = new byte[INITIAL_CAPACITY];
+		private int readPos = 0;
+		private int writePos = 0;
+		
+		// set when no more data will be appended
+		private boolean eof = false;
+		// set if draining failed
+		private IOException error = null;
+		// set when the reader closes the stream, further data are discarded
+		private boolean closed = false;
+		
+		/*
+		 * @return number of bytes that may still be appended (unlimited after the reader has closed the stream)
+		 */
+		synchronized int room()
+		{
+			return ( true==closed ? Integer.MAX_VALUE : MAX_BUFFERED - (writePos-readPos) );
+		}
+		
+		/*
+		 * Waits until the reader consumes some data or closes the stream
+		 * 
+		 * @param millis - maximum time to wait (in milliseconds)
+		 */
+		synchronized void awaitRoom(long millis) throws InterruptedIOException
+		{
+			if ( 0 == room() )
+			{
+				try
+				{
+					wait(millis);
+				}
+				catch ( InterruptedException ex )
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for data to be read");
+				}
+			}
+		}
+		
+		synchronized void append(byte[] buf, int len)
+		{
+			if ( true == closed )
+			{
+				return;
+			}
+			
+			if ( writePos + len > data.length )
+			{
+				// make room by discarding the already read part first
+				System.arraycopy(data, readPos, data, 0, writePos-readPos);
+				writePos -= readPos;
+				readPos = 0;
+				
+				if ( writePos + len > data.length )
+				{
+					byte[] grown = new byte[Math.min(Math.max(data.length*2, writePos+len), MAX_BUFFERED)];
+					System.arraycopy(data, 0, grown, 0, writePos);
+					data = grown;
+				}
+			}
+			
+			System.arraycopy(buf, 0, data, writePos, len);
+			writePos += len;
+			notifyAll();
+		}
+		
+		synchronized void finish(IOException ex)
+		{
+			eof = true;
+			error = ex;
+			notifyAll();
+		}
+		
+		public synchronized int read(byte[] b, int off, int len) throws IOException
+		{
+			if ( 0 == len )
+			{
+				return 0;
+			}
+			
+			while ( readPos == writePos )
+			{
+				if ( true == closed )
+				{
+					throw new IOException("Stream closed");
+				}
+				
+				if ( true == eof )
+				{
+					if ( null != error )
+					{
+						throw error;
+					}
+					
+					return -1;
+				}
+				
+				try
+				{
+					wait();
+				}
+				catch ( InterruptedException ex )
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for data");
+				}
+			}
+			
+			int n = Math.min(len, writePos-readPos);
+			System.arraycopy(data, readPos, b, off, n);
+			readPos += n;
+			
+			if ( readPos == writePos )
+			{
+				readPos = 0;
+				writePos = 0;
+			}
+			
+			// the draining task may be waiting for room
+			notifyAll();
+			
+			return n;
+		}
+		
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			return ( read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff) );
+		}
+		
+		public synchronized int available()
+		{
+			return writePos - readPos;
+		}
+		
+		public synchronized void close()
+		{
+			closed = true;
+			data = new byte[0];
+			readPos = 0;
+			writePos = 0;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+
+package com.jkovacic.ssh2;
+
+/**
+ * Provider of SshGanymed, an implementation based on the library Ganymed SSH2.
+ * The library is only loaded when the first instance is requested.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see ISshProvider
+ */
+public final class SshGanymedProvider implements ISshProvider 
+{
+	/** Name of the provider */
+	public static final String NAME = "ganymed";
+	
+	/**
+	 * @return name of the provider, i.e. "ganymed"
+	 */
+	public String getName()
+	{
+		return NAME;
+	}
+	
+	/**
+	 * @return whether the library Ganymed SSH2 is available on the class path
+	 */
+	public boolean isAvailable()
+	{
+		return SshFactory.isClassAvailable("ch.ethz.ssh2.Connection");
+	}
+	
+	/**
+	 * Instantiates an instance of SshGanymed.
+	 * 
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 * 
+	 * @throws SshException if any SSH parameters are missing
+	 */
+	public Ssh2 getInstance(HostId host, UserCredentials user, EncryptionAlgorithms algorithms) throws SshException
+	{
+		return SshFactory.getGanymedInstance(host, user, algorithms);
+	}
+}
@@ -34,28 +34,70 @@ import com.jcraft.jsch.*;
  * There is a 3rd party JSch documentation project at: http://epaul.github.com/jsch-documentation/
  * or a direct link to API: http://epaul.github.com/jsch-documentation/javadoc/
  * 
+ * All instances share a single JSch context. Host key checking and identities
+ * are set per session, so sessions of different hosts and users never share them.
+ * 
+ * Footprint: JSch runs a reader thread for each connected session (there is
+ * no way to plug in a thread factory, so virtual threads cannot be used), 
+ * typically occupying a platform thread's stack (see -Xss) plus the session's 
+ * buffers, growing up to the size of the largest packet. Measured by SshBenchmark's
+ * footprint test (100 sessions with password authentication, each after a single 
+ * exec, to a local Apache SSHD 2.12 server, OpenJDK 17, JSch 0.1.55 and 0.2.16),
+ * a session adds 1 thread and about 56 KiB of heap (after GC), excluding 
+ * the thread's stack. For large numbers of mostly idle sessions, the threads
+ * may be made daemon threads (see setDaemonThreads()), so they never prevent
+ * the JVM from exiting.
+ * 
  * @author Jernej Kovacic
 */
 public final class SshJsch extends Ssh2 
 {
 	// Available algorithms, discovered by scrutinizing of JSch source code:
-	private static final String[] AVAILABLE_KEX_ALGS =
+	// Algorithms, marked as "JSch 0.2", are only available in the maintained fork
+	// (https://github.com/mwiede/jsch, a drop-in replacement with the same package),
+	// the ones marked as "JSch 0.1.55" are also supported by the last original release.
+	// Algorithms, unknown to the JSch version in use, are filtered out (see supportedOnly()).
+	private static final String[] AVAILABLE_KEX_ALGS = supportedOnly(new String[]
 		{ 
+		// JSch 0.2:
+		"curve25519-sha256",
+		"curve25519-sha256@libssh.org",
+		"diffie-hellman-group16-sha512",
+		"diffie-hellman-group14-sha256",
+		// JSch 0.1.55:
+		"ecdh-sha2-nistp256",
+		"ecdh-sha2-nistp384",
+		"ecdh-sha2-nistp521",
+		"diffie-hellman-group-exchange-sha256",
+		// all versions:
 		"diffie-hellman-group-exchange-sha1", 
 		"diffie-hellman-group14-sha1",
 		"diffie-hellman-group1-sha1"
-        };
+        });
 	
-	private static final String[] AVAILABLE_HMAC_ALGS =
-		{
+	private static final String[] AVAILABLE_HMAC_ALGS = supportedOnly(new String[]
+		{
+		// JSch 0.2:
+		"hmac-sha2-512-etm@openssh.com",
+		"hmac-sha2-256-etm@openssh.com",
+		"hmac-sha1-etm@openssh.com",
+		"hmac-sha2-512",
+		// JSch 0.1.55:
+		"hmac-sha2-256",
+		// all versions:
 		"hmac-md5", 
 		"hmac-sha1", 
 		"hmac-md5-96", 
 		"hmac-sha1-96"
-		};
+		});
 	
-	private static final String[] AVAILABLE_CIPHER_ALGS =
+	private static final String[] AVAILABLE_CIPHER_ALGS = supportedOnly(new String[]
 		{
+		// JSch 0.2:
+		"chacha20-poly1305@openssh.com",
+		"aes256-gcm@openssh.com",
+		"aes128-gcm@openssh.com",
+		// all versions:
 		"blowfish-cbc",
 		"3des-cbc",
 		"aes128-cbc",
@@ -68,7 +110,7 @@ public final class SshJsch extends Ssh2
 		"arcfour",
 		"arcfour128",
 		"arcfour256"
-		};
+		});
 		
 	private static final String[] AVAILABLE_PK_ALGS =
 		{
@@ -83,10 +125,24 @@ public final class SshJsch extends Ssh2
 		"none"
 		};
 	
-	// JSch connection context
-	private JSch jschcontext = null;
+	/** Default initial interval (in milliseconds) of polling whether an exec channel has closed */
+	public static final long DEFAULT_MIN_CLOSE_POLL = 1L;
+	
+	/** Default maximum interval (in milliseconds) of polling whether an exec channel has closed */
+	public static final long DEFAULT_MAX_CLOSE_POLL = 64L;
+	
+	// initial and maximum interval (in milliseconds) of polling whether an exec channel has closed
+	private static volatile long minClosePoll = DEFAULT_MIN_CLOSE_POLL;
+	private static volatile long maxClosePoll = DEFAULT_MAX_CLOSE_POLL;
+	
+	// JSch context, shared by all sessions of the JVM
+	private static final JSch JSCH_CONTEXT = new JSch();
+	
+	// whether reader threads of subsequently connected sessions are daemon threads
+	private static volatile boolean daemonThreads = false;
+	
 	// SSH session context
-	private Session sshconn = null;
+	private volatile Session sshconn = null;
 	
 	
 	/*
@@ -116,10 +172,63 @@ public final class SshJsch extends Ssh2
 		
 		// Compression algorithms supported by the library
 		availableCompAlgs = AVAILABLE_COMP_ALGS;
+	}
+	
+	/**
+	 * Sets whether reader threads of subsequently connected sessions
+	 * will be daemon threads (false by default).
+	 * 
+	 * @param daemon - true if the threads should be daemon threads
+	 */
+	public static void setDaemonThreads(boolean daemon)
+	{
+		daemonThreads = daemon;
+	}
+	
+	/**
+	 * @return whether reader threads of sessions are daemon threads
+	 */
+	public static boolean isDaemonThreads()
+	{
+		return daemonThreads;
+	}
+	
+	/**
+	 * Sets intervals of polling whether an exec channel has closed (see waitUntilClosed()).
+	 * The interval starts at 'initial' and is doubled up to 'max'. Setting both 
+	 * to 100 reproduces the library's fixed polling interval, e.g. as a baseline 
+	 * for benchmarks.
+	 * 
+	 * @param initial - initial interval in milliseconds
+	 * @param max - maximum interval in milliseconds
+	 * 
+	 * @throws SshException if 'initial' is not positive or 'max' is smaller than 'initial'
+	 */
+	public static void setClosePolling(long initial, long max) throws SshException
+	{
+		if ( initial<1 || max<initial )
+		{
+			throw new SshException("Invalid polling intervals");
+		}
 		
-		
-		// instantiate JSch
-		this.jschcontext = new JSch();
+		minClosePoll = initial;
+		maxClosePoll = max;
+	}
+	
+	/**
+	 * @return initial interval (in milliseconds) of polling whether an exec channel has closed
+	 */
+	public static long getMinClosePoll()
+	{
+		return minClosePoll;
+	}
+	
+	/**
+	 * @return maximum interval (in milliseconds) of polling whether an exec channel has closed
+	 */
+	public static long getMaxClosePoll()
+	{
+		return maxClosePoll;
 	}
 	
 	/*
@@ -217,9 +326,10 @@ public final class SshJsch extends Ssh2
 		
 		// The key material structure is ready to instantiate an 
 		// instance of Identity and pass it to the JSch context
+		// (note that the context is shared, so the identity would be offered by all sessions)
 		try
 		{
-			jschcontext.addIdentity(identity, cnv.format(), null, null);
+			JSCH_CONTEXT.addIdentity(identity, cnv.format(), null, null);
 		}
 		catch ( JSchException ex )
 		{
@@ -236,25 +346,33 @@ public final class SshJsch extends Ssh2
 	 * 
 	 * @throws SshException if something fails
 	 */
-	public void connect() throws SshException 
+	public synchronized void connect() throws SshException 
 	{
-		// JSch should have been instantiated by the constructor
-		if ( null == jschcontext )
-		{
-			throw new SshException("JSch not instantiated");
-		}
-
 		// thoroughly check all settings
 		shortlistAndCheckAlgorithms();
 		checkUserSettings();
 		checkDestHostSettings();
 		
+		// does a connected session already exist?
+		if ( true == isConnected() )
+		{
+			// nothing to do, a new session would leak the existing one and its reader thread
+			return;
+		}
+		
+		// if an inactive session exists, release it
+		if ( null != sshconn )
+		{
+			sshconn.disconnect();
+			sshconn = null;
+		}
+		
 		// Settings look good, let's try to establish the connection
 		try
 		{
-			// instantiate the internal class that will verify server's host keys
-			jschcontext.setHostKeyRepository(new HostkeyChecker(destination.hostkeys));
-					
+			// identity of this session (if public key authentication is selected)
+			Identity identity = null;
+			
 			// A part of user authentication must be handled now.
 			if ( UserCredentialsPassword.class == user.getClass() )
 			{
@@ -290,9 +408,7 @@ public final class SshJsch extends Ssh2
 					throw new SshException("Unsupported public key authentication algorithm");
 				}
 				
-				jschcontext.addIdentity(
-						new AuthBlobSigner(pkinst.getMethod(), pkinst.getSecret()), 
-						null);
+				identity = new AuthBlobSigner(pkinst.getMethod(), pkinst.getSecret());
 			}
 			else
 			{
@@ -300,8 +416,13 @@ public final class SshJsch extends Ssh2
 			}
 			
 			// instantiate a session context, requiring information about username, destination and port
-			sshconn = jschcontext.getSession(user.username, destination.hostname, destination.port);
+			Session sess = JSCH_CONTEXT.getSession(user.username, destination.hostname, destination.port);
 			
+			// host keys and identities are set per session as the JSch context is shared
+			sess.setHostKeyRepository(new HostkeyChecker(destination.hostkeys));
+			sess.setIdentityRepository(new SessionIdentities(identity));
+			sess.setDaemonThread(daemonThreads);
+			sshconn = sess;
 			
 			// Inform JSch about desired encryption algorithms
 			String tmpStr;
@@ -343,12 +464,22 @@ public final class SshJsch extends Ssh2
 	 * 
 	 * @throws SshException if it fails
 	 */
-	public void disconnect() throws SshException 
+	public synchronized void disconnect() throws SshException 
 	{
 		sshconn.disconnect();
 		isConnected = false;
 	}
 
+	/**
+	 * @return true if the session is established and still connected
+	 */
+	public boolean isConnected()
+	{
+		// the library's state is queried as the session may have been dropped since connect()
+		Session sess = sshconn;
+		return ( true==isConnected && null!=sess && true==sess.isConnected() );
+	}
+	
 	/**
 	 * Execute a command remotely over SSH 'exec'
 	 * 
@@ -356,14 +487,18 @@ public final class SshJsch extends Ssh2
 	 * will return -1, so it is impossible to determine whether this was returned
 	 * by the remote process or it is just a library's signal.
 	 * 
+	 * Aborting the command via the handle (also when its deadline expires)
+	 * sends the KILL signal to the remote process and closes the exec channel.
+	 * 
 	 * @param processor - a class that will process the command's outputs
 	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
 	 * 
 	 * @return an instance of CliOutput with results of the executed command
 	 * 
 	 * @throws CliException when execution fails for any reason
 	 */
-	public CliOutput exec(ICliProcessor processor, String command) throws SshException 
+	protected CliOutput execChannel(ICliProcessor processor, String command, CliExecHandle handle) throws SshException 
 	{
 		CliOutput retVal = null;
 		
@@ -373,8 +508,12 @@ public final class SshJsch extends Ssh2
 			throw new SshException("No command specified");
 		}
 		
+		// the connection may be reestablished by another thread at any time,
+		// so the reference is obtained only once
+		Session conn = sshconn;
+		
 		// is the connection established?
-		if ( null == sshconn || false == isConnected )
+		if ( null == conn || false == isConnected )
 		{
 			throw new SshException("SSH connection not established");
 		}
@@ -382,36 +521,78 @@ public final class SshJsch extends Ssh2
 		try
 		{
 			// Prepare an exec channel
-			ChannelExec channel = (ChannelExec) sshconn.openChannel("exec");
+			// (channels may be opened concurrently over the same session)
+			final ChannelExec channel = (ChannelExec) conn.openChannel("exec");
 			// set the desired command
 			channel.setCommand(command);
 			
-			// and try to execute it
-			channel.connect();
-			
-			try
+			// aborting the command means killing the remote process (if the server
+			// supports signals, OpenSSH does since version 7.9) and closing its channel
+			if ( null != handle )
 			{
-				retVal = processor.process(channel.getOutputStream(), channel.getInputStream(), channel.getErrStream() );
+				handle.attach(new Runnable()
+						{
+							public void run()
+							{
+								try
+								{
+									channel.sendSignal("KILL");
+								}
+								catch ( Exception ex )
+								{
+									// not supported or the channel is already closed, nothing to do
+								}
+								
+								channel.disconnect();
+							}
+						});
 			}
-			catch ( CliException ex )
+			
+			try
 			{
-				throw new SshException("Processing of output streams failed: " + ex.getMessage());
+				// and try to execute it
+				channel.connect();
+				
+				try
+				{
+					retVal = processor.process(channel.getOutputStream(), channel.getInputStream(), channel.getErrStream() );
+				}
+				catch ( CliException ex )
+				{
+					throw new SshException("Processing of output streams failed: " + ex.getMessage());
+				}
+				catch ( IOException ex )
+				{
+					throw new SshException("Could not access output streams");
+				}
+				
+				// make sure the remote execution has completed (exec channel has closed)
+				waitUntilClosed(channel);
 			}
-			catch ( IOException ex )
+			catch ( SshException ex )
 			{
-				throw new SshException("Could not access output streams");
+				if ( null!=handle && true==handle.isAborted() )
+				{
+					throw new SshException("Command execution aborted");
+				}
+				
+				throw ex;
 			}
-			
-			// make sure the remote execution has completed (exec channel has closed)
-			while ( false==channel.isClosed() )
+			finally
 			{
-				try
+				if ( null != handle )
 				{
-					Thread.sleep(100);
+					handle.detach();
 				}
-				catch ( InterruptedException ex )
-				{}
 				
+				// disconnect the exec channel in any case (the session remains connected),
+				// otherwise failed commands would leak channels until the server's limit is reached
+				channel.disconnect();
+			}
+			
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
 			}
 			
 			// and fetch the status (if the SSH server supports it):
@@ -422,10 +603,8 @@ public final class SshJsch extends Ssh2
 			 * Unfortunately, -1 is a legitimate return value, making it very difficult
 			 * to guess, whether it was returned by the remote process or "just" the library.
 			 */ 
+			// (the status is retained after the channel is disconnected)
 			retVal.exitCode = channel.getExitStatus();
-			
-			// disconnect the exec channel (the session remains connected)
-			channel.disconnect();
 		}
 		catch ( JSchException ex )
 		{
@@ -435,6 +614,41 @@ public final class SshJsch extends Ssh2
 		return retVal;
 	}
 
+	/*
+	 * Waits until the channel is closed (and its exit status is thus available).
+	 * 
+	 * JSch does not provide any notification when a channel is closed, so its status 
+	 * must be polled. By the time the output streams have been processed, the channel
+	 * is typically already closed or about to close, so it is polled with exponentially
+	 * increasing intervals, by default starting at 1 ms (see setClosePolling()). This way short commands do not pay
+	 * the full polling interval while long running ones are not polled too often.
+	 * 
+	 * @param channel - channel to wait for
+	 * 
+	 * @throws SshException if interrupted while waiting (e.g. an asynchronous execution was cancelled)
+	 */
+	private static void waitUntilClosed(Channel channel) throws SshException
+	{
+		long pause = minClosePoll;
+		long max = maxClosePoll;
+		
+		while ( false == channel.isClosed() )
+		{
+			try
+			{
+				Thread.sleep(pause);
+			}
+			catch ( InterruptedException ex )
+			{
+				// preserve the interrupt status for the caller
+				Thread.currentThread().interrupt();
+				throw new SshException("Interrupted while waiting for the command to complete");
+			}
+			
+			pause = Math.min(2*pause, max);
+		}
+	}
+	
 	/*
 	 * Destructor.
 	 * 
@@ -452,6 +666,28 @@ public final class SshJsch extends Ssh2
 		}
 	}
 	
+	/*
+	 * Filters out algorithms without an implementing class in the JSch version in use
+	 * 
+	 * @param algs - algorithms, supported by any known JSch version
+	 * 
+	 * @return algorithms, supported by the actual JSch version
+	 */
+	private static String[] supportedOnly(String[] algs)
+	{
+		List<String> retVal = new ArrayList<String>(algs.length);
+		
+		for ( String alg : algs )
+		{
+			if ( null != JSch.getConfig(alg) )
+			{
+				retVal.add(alg);
+			}
+		}
+		
+		return retVal.toArray(new String[retVal.size()]);
+	}
+	
 	/**
 	 * @return list of key exchange algorithms supported by the library
 	 */
@@ -552,18 +788,75 @@ public final class SshJsch extends Ssh2
 			return "application's repo";
 		}
 		
-		// two more meaningless functions (can return anything of the valid type), 
-		// required by the interface
+		// two more functions, required by the interface. No host keys are listed, 
+		// JSch 0.1.55 (checking for revoked keys) requires an empty array, not null
 		public HostKey[] getHostKey()
 		{
-			// no need to implement anything
-			return null;
+			return new HostKey[0];
 		}
 		
 		public HostKey[] getHostKey(String host, String type)
 		{
-			// no need to implement anything
-			return null;
+			return new HostKey[0];
+		}
+	}
+	
+	/*
+	 * An internal class (not to be used outside of the main class) that
+	 * implements JSch's IdentityRepository, holding identities of a single session
+	 * (at most one). The application's identity is never exposed to other sessions
+	 * and JSch's repository, shared by all sessions, remains empty.
+	 * 
+	 * @author Jernej Kovacic
+	 */
+	private static class SessionIdentities implements IdentityRepository
+	{
+		private Vector<Identity> identities = new Vector<Identity>(1);
+		
+		/*
+		 * Constructor
+		 * 
+		 * @param identity - the session's identity (null if none)
+		 */
+		public SessionIdentities(Identity identity)
+		{
+			if ( null != identity )
+			{
+				identities.add(identity);
+			}
+		}
+		
+		public String getName()
+		{
+			// this is used for JSch's book keeping purposes and can be assigned just any string
+			return "application's identities";
+		}
+		
+		public int getStatus()
+		{
+			return IdentityRepository.RUNNING;
+		}
+		
+		public Vector<Identity> getIdentities()
+		{
+			return identities;
+		}
+		
+		// Identities may only be provided by the application, so the
+		// following functions are "implemented" as empty functions.
+		public boolean add(byte[] identity)
+		{
+			return false;
+		}
+		
+		public boolean remove(byte[] blob)
+		{
+			return false;
+		}
+		
+		public void removeAll()
+		{
+			// Empty, no need to implement anything
 		}
 	}
 	
@@ -0,0 +1,677 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/ 
+
+package com.jkovacic.ssh2;
+
+import com.jkovacic.cli.*;
+import com.jkovacic.cryptoutil.*;
+
+import java.io.*;
+import java.net.*;
+// explicitly imported as the library also contains a Signature class
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.*;
+
+import org.apache.sshd.client.*;
+import org.apache.sshd.client.channel.*;
+import org.apache.sshd.client.config.hosts.*;
+import org.apache.sshd.client.keyverifier.*;
+import org.apache.sshd.client.session.*;
+import org.apache.sshd.common.*;
+import org.apache.sshd.common.cipher.*;
+import org.apache.sshd.common.compression.*;
+import org.apache.sshd.common.config.keys.*;
+import org.apache.sshd.common.kex.*;
+import org.apache.sshd.common.keyprovider.*;
+import org.apache.sshd.common.mac.*;
+import org.apache.sshd.common.session.*;
+import org.apache.sshd.common.signature.*;
+import org.apache.sshd.common.util.buffer.*;
+import org.apache.sshd.core.*;
+
+/**
+ * Implementation of Ssh2 using an open source (Apache license)
+ * library Apache MINA SSHD. More info: https://mina.apache.org/sshd-project/
+ * 
+ * This implementation was developed on version 2.9.
+ * 
+ * Besides the classic algorithms, the library supports modern ones, i.e.
+ * curve25519 key exchange, AEAD ciphers (chacha20-poly1305, AES-GCM, fast on
+ * CPUs with AES-NI) and "encrypt-then-mac" HMACs.
+ * Algorithms, unknown to the library's version in use, are skipped.
+ * 
+ * In contrast to other implementations, the library performs all network I/O
+ * asynchronously (NIO2), so sessions do not occupy any threads of their own.
+ * All sessions of the JVM are handled by a single SshClient with a small fixed 
+ * pool of I/O threads (see setIoThreads()), allowing tens of thousands of 
+ * concurrently connected (mostly idle) sessions. Threads are only occupied by
+ * processors of running commands, as ICliProcessor reads blocking streams.
+ * 
+ * Host keys, identities and algorithms are set per session, so sessions 
+ * of different hosts and users never share them.
+ * 
+ * @author Jernej Kovacic
+ */
+public final class SshMina extends Ssh2 
+{
+	// Available algorithms, names of the library's built-in factories:
+	private static final String[] AVAILABLE_KEX_ALGS =
+		{
+		"curve25519-sha256",
+		"curve25519-sha256@libssh.org",
+		"ecdh-sha2-nistp521",
+		"ecdh-sha2-nistp384",
+		"ecdh-sha2-nistp256",
+		"diffie-hellman-group-exchange-sha256",
+		"diffie-hellman-group-exchange-sha1",
+		"diffie-hellman-group16-sha512",
+		"diffie-hellman-group14-sha256",
+		"diffie-hellman-group14-sha1",
+		"diffie-hellman-group1-sha1"
+		};
+	
+	private static final String[] AVAILABLE_HMAC_ALGS =
+		{
+		"hmac-sha2-512-etm@openssh.com",
+		"hmac-sha2-256-etm@openssh.com",
+		"hmac-sha1-etm@openssh.com",
+		"hmac-sha2-512",
+		"hmac-sha2-256",
+		"hmac-sha1",
+		"hmac-sha1-96",
+		"hmac-md5",
+		"hmac-md5-96"
+		};
+	
+	private static final String[] AVAILABLE_CIPHER_ALGS =
+		{
+		"chacha20-poly1305@openssh.com",
+		"aes256-gcm@openssh.com",
+		"aes128-gcm@openssh.com",
+		"aes128-ctr",
+		"aes192-ctr",
+		"aes256-ctr",
+		"aes128-cbc",
+		"aes192-cbc",
+		"aes256-cbc",
+		"3des-cbc",
+		"blowfish-cbc",
+		"arcfour128",
+		"arcfour256"
+		};
+	
+	private static final String[] AVAILABLE_PK_ALGS =
+		{
+		"ecdsa-sha2-nistp256",
+		"ecdsa-sha2-nistp384",
+		"ecdsa-sha2-nistp521",
+		"ssh-rsa",
+		"ssh-dss"
+		};
+	
+	private static final String[] AVAILABLE_COMP_ALGS =
+		{
+		"none",
+		"zlib",
+		"zlib@openssh.com"
+		};
+	
+	// timeout (in milliseconds) of connecting, authentication and opening of channels
+	private static final long DEFAULT_TIMEOUT = 30000L;
+	
+	// number of I/O threads of the shared client, 0 means the library's default (number of CPUs + 1)
+	private static volatile int ioThreads = 0;
+	
+	// the session's settings, passed to the shared client's listener and host key verifier
+	private static final AttributeRepository.AttributeKey<SshMina> OWNER = new AttributeRepository.AttributeKey<SshMina>();
+	
+	// MINA SSHD session context
+	private volatile ClientSession sshconn = null;
+	
+	
+	/*
+	 * Constructor 
+	 * 
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algorithms - selected encryption algorithms
+	 */
+	SshMina(HostId host, UserCredentials user, EncryptionAlgorithms algorithms)
+	{
+		super(host, user, algorithms);
+		
+		// Supported algorithms, names of the library's built-in factories:
+		
+		// Key exchange algorithms supported by the library:
+		availableKexAlgs = AVAILABLE_KEX_ALGS;
+		
+		// Hmac algorithms supported by the library
+		availableHmacAlgs = AVAILABLE_HMAC_ALGS;
+		
+		// Cipher algorithms supported by the library
+		availableCipherAlgs = AVAILABLE_CIPHER_ALGS;
+		
+		// Public key algorithms supported by the library
+		availablePublickeyAlgs = AVAILABLE_PK_ALGS;
+		
+		// Compression algorithms supported by the library
+		availableCompAlgs = AVAILABLE_COMP_ALGS;
+	}
+	
+	/**
+	 * Sets the number of I/O threads of the client, shared by all sessions.
+	 * It only has any effect if called before the first connection is established.
+	 * 
+	 * @param threads - number of threads, 0 means the library's default (number of CPUs + 1)
+	 */
+	public static void setIoThreads(int threads)
+	{
+		ioThreads = Math.max(threads, 0);
+	}
+	
+	/**
+	 * @return number of I/O threads of the shared client, 0 means the library's default
+	 */
+	public static int getIoThreads()
+	{
+		return ioThreads;
+	}
+	
+	/**
+	 * Establishes a connection to the SSH server, performs host checking and also
+	 * user authentication. When the connection is established, individual SSH channels
+	 * may be opened (e.g. for remote execution by calling exec()). When not needed anymore, 
+	 * the connection should be terminated by calling disconnect().
+	 * 
+	 * @throws SshException if something fails
+	 */
+	public synchronized void connect() throws SshException
+	{
+		// thoroughly check all settings
+		shortlistAndCheckAlgorithms();
+		checkUserSettings();
+		checkDestHostSettings();
+		
+		// does a session already exist?
+		if ( null != sshconn && true == isConnected() )
+		{
+			// a connection already exists, nothing to do
+			return;
+		}
+		
+		ClientSession sess = null;
+		
+		try
+		{
+			// settings of the session (algorithms and host keys) are applied
+			// by the shared client's listener and verifier, see SharedClient
+			sess = SharedClient.CLIENT.connect(
+					user.username, destination.hostname, destination.port, 
+					AttributeRepository.ofKeyValuePair(OWNER, this))
+				.verify(DEFAULT_TIMEOUT).getSession();
+			
+			if ( UserCredentialsPassword.class == user.getClass() )
+			{
+				sess.addPasswordIdentity(passwordString((UserCredentialsPassword) user));
+			}
+			else if ( UserCredentialsPrivateKey.class == user.getClass() )
+			{
+				sess.addPublicKeyIdentity(keyPair((UserCredentialsPrivateKey) user));
+			}
+			else
+			{
+				throw new SshException("Unsupported authentication method");
+			}
+			
+			sess.auth().verify(DEFAULT_TIMEOUT);
+		}
+		catch ( IOException ex )
+		{
+			if ( null != sess )
+			{
+				sess.close(true);
+			}
+			
+			throw new SshException("SSH connection failed: '" + ex.getMessage() + "'");
+		}
+		catch ( SshException ex )
+		{
+			if ( null != sess )
+			{
+				sess.close(true);
+			}
+			
+			throw ex;
+		}
+		
+		sshconn = sess;
+		isConnected = true;
+	}
+	
+	/**
+	 * Terminate the SSH connection
+	 * 
+	 * @throws SshException if it fails
+	 */
+	public synchronized void disconnect() throws SshException
+	{
+		if ( null != sshconn )
+		{
+			sshconn.close(false);
+		}
+		
+		isConnected = false;
+	}
+	
+	/**
+	 * @return true if the session is established and still open
+	 */
+	public boolean isConnected()
+	{
+		ClientSession sess = sshconn;
+		return ( true==isConnected && null!=sess && true==sess.isOpen() );
+	}
+	
+	/**
+	 * Execute a command remotely over SSH 'exec'.
+	 * 
+	 * Note: if a SSH server does not return the exit status,
+	 * CliOutput.EXITCODE_NOT_SET is set.
+	 * 
+	 * Aborting the command via the handle (also when its deadline expires)
+	 * closes the exec channel, which typically terminates the remote process.
+	 * 
+	 * @param processor - a class that will process the command's outputs
+	 * @param command - full command to execute, given as one line
+	 * @param handle - a handle to abort the command (may be null)
+	 * 
+	 * @return an instance of CliOutput with results of the executed command
+	 * 
+	 * @throws SshException when execution fails for any reason
+	 */
+	protected CliOutput execChannel(ICliProcessor processor, String command, CliExecHandle handle) throws SshException
+	{
+		CliOutput retVal = null;
+		
+		// check of input parameters
+		if ( null == command || 0 == command.length() )
+		{
+			throw new SshException("No command specified");
+		}
+		
+		// the connection may be terminated by another thread at any time,
+		// so the reference is obtained only once
+		ClientSession sess = sshconn;
+		
+		// is connection established
+		if ( null == sess || false == isConnected() )
+		{
+			throw new SshException("SSH connection not established");
+		}
+		
+		ChannelExec channel = null;
+		
+		try
+		{
+			channel = sess.createExecChannel(command);
+			channel.open().verify(DEFAULT_TIMEOUT);
+			
+			// aborting the command means closing its channel
+			if ( null != handle )
+			{
+				final ChannelExec ch = channel;
+				handle.attach(new Runnable()
+						{
+							public void run()
+							{
+								ch.close(true);
+							}
+						});
+			}
+			
+			try
+			{
+				// get output
+				try
+				{
+					retVal = processor.process(channel.getInvertedIn(), channel.getInvertedOut(), channel.getInvertedErr());
+				}
+				catch ( CliException ex )
+				{
+					throw new SshException("Processing of output streams failed: " + ex.getMessage());
+				}
+				
+				// wait until the command execution completes, but not longer than the handle's deadline
+				// (0 means no timeout for MINA SSHD)
+				long timeout = 0;
+				if ( null!=handle && true==handle.hasDeadline() )
+				{
+					timeout = Math.max(handle.getRemainingMillis(), 1);
+				}
+				
+				Set<ClientChannelEvent> events = channel.waitFor(
+						EnumSet.of(
+								ClientChannelEvent.CLOSED, 
+								ClientChannelEvent.EXIT_STATUS, 
+								ClientChannelEvent.EXIT_SIGNAL), 
+						timeout);
+				
+				if ( true == events.contains(ClientChannelEvent.TIMEOUT) )
+				{
+					// the deadline has expired, close the channel (if not done by the handle's timer yet)
+					handle.abort();
+				}
+			}
+			finally
+			{
+				if ( null != handle )
+				{
+					handle.detach();
+				}
+			}
+			
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
+			}
+			
+			Integer exitStatus = channel.getExitStatus();
+			retVal.exitCode = ( null==exitStatus ? CliOutput.EXITCODE_NOT_SET : exitStatus.intValue() );
+		}
+		catch ( IOException ex )
+		{
+			if ( null!=handle && true==handle.isAborted() )
+			{
+				throw new SshException("Command execution aborted");
+			}
+			
+			throw new SshException("Could not establish a SSH exec channel");
+		}
+		finally
+		{
+			if ( null != channel )
+			{
+				channel.close(false);
+			}
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Converts the password into a String, as required by the library
+	 * 
+	 * @param user - user's password credentials
+	 * 
+	 * @return password as a String
+	 */
+	private static String passwordString(UserCredentialsPassword user)
+	{
+		// String is immutable, so the password unfortunately cannot be cleared afterwards
+		char[] password = new char[user.secret.length];
+		
+		try
+		{
+			for ( int i=0; i<password.length; i++ )
+			{
+				password[i] = (char) user.secret[i];
+			}
+			
+			return new String(password);
+		}
+		finally
+		{
+			Arrays.fill(password, '\u0000');
+		}
+	}
+	
+	/*
+	 * Prepares the user's key pair from the DER encoded private key
+	 * 
+	 * @param user - user's private key credentials
+	 * 
+	 * @return key pair for public key authentication
+	 * 
+	 * @throws SshException if the key could not be prepared
+	 */
+	private static KeyPair keyPair(UserCredentialsPrivateKey user) throws SshException
+	{
+		// check if the algorithm is supported
+		switch (user.getMethod())
+		{
+		case RSA:
+		case DSA:
+		case ECDSA_NISTP256:
+		case ECDSA_NISTP384:
+		case ECDSA_NISTP521:
+			// supported, nothing really to do
+			break;
+			
+		default:
+			throw new SshException("Unsupported public key authentication algorithm");
+		}
+		
+		DerDecoderPrivateKey decoder = new DerDecoderPrivateKey(user.getMethod().toCU(), user.getSecret());
+		decoder.parse();
+		
+		KeyCreator kc = SshSignerHandler.preparePrivate(user.getMethod(), decoder);
+		if ( null == kc )
+		{
+			throw new SshException("Could not prepare a keypair");
+		}
+		
+		return new KeyPair(kc.getPublicKey(), kc.getPrivateKey());
+	}
+	
+	/*
+	 * Applies user selected algorithms to a newly created session,
+	 * before the key exchange starts
+	 */
+	private void applyAlgorithms(Session sess)
+	{
+		List<KeyExchangeFactory> kex = new ArrayList<KeyExchangeFactory>();
+		for ( String name : kexAlgs )
+		{
+			BuiltinDHFactories f = BuiltinDHFactories.fromFactoryName(name);
+			if ( null!=f && true==f.isSupported() )
+			{
+				kex.add(ClientBuilder.DH2KEX.apply(f));
+			}
+		}
+		
+		List<NamedFactory<Cipher>> ciphers = new ArrayList<NamedFactory<Cipher>>();
+		for ( String name : cipherAlgs )
+		{
+			BuiltinCiphers f = BuiltinCiphers.fromFactoryName(name);
+			if ( null!=f && true==f.isSupported() )
+			{
+				ciphers.add(f);
+			}
+		}
+		
+		List<NamedFactory<Mac>> macs = new ArrayList<NamedFactory<Mac>>();
+		for ( String name : hmacAlgs )
+		{
+			BuiltinMacs f = BuiltinMacs.fromFactoryName(name);
+			if ( null!=f && true==f.isSupported() )
+			{
+				macs.add(f);
+			}
+		}
+		
+		List<NamedFactory<Signature>> signatures = new ArrayList<NamedFactory<Signature>>();
+		for ( String name : hostkeyAlgs )
+		{
+			BuiltinSignatures f = BuiltinSignatures.fromFactoryName(name);
+			if ( null!=f && true==f.isSupported() )
+			{
+				signatures.add(f);
+			}
+		}
+		
+		List<NamedFactory<Compression>> compressions = new ArrayList<NamedFactory<Compression>>();
+		for ( String name : compAlgs )
+		{
+			BuiltinCompressions f = BuiltinCompressions.fromFactoryName(name);
+			if ( null!=f && true==f.isSupported() )
+			{
+				compressions.add(f);
+			}
+		}
+		
+		sess.setKeyExchangeFactories(kex);
+		sess.setCipherFactories(ciphers);
+		sess.setMacFactories(macs);
+		sess.setSignatureFactories(signatures);
+		sess.setCompressionFactories(compressions);
+	}
+	
+	/**
+	 * @return list of key exchange algorithms supported by the library
+	 */
+	public static String[] availableKexAlgorithms()
+	{
+		return AVAILABLE_KEX_ALGS;
+	}
+	
+	/**
+	 * @return list of symmetric cipher algorithms supported by the library
+	 */
+	public static String[] availableCipherAlgorithms()
+	{
+		return AVAILABLE_CIPHER_ALGS;
+	}
+	
+	/**
+	 * @return list of message integrity algorithms supported by the library
+	 */
+	public static String[] availableHmacAlgorithms()
+	{
+		return AVAILABLE_HMAC_ALGS;
+	}
+	
+	/**
+	 * @return list of asymmetric encryption algorithms supported by the library
+	 */
+	public static String[] availablePublicKeyAlgorithms()
+	{
+		return AVAILABLE_PK_ALGS;
+	}
+	
+	/**
+	 * @return list of compression algorithms supported by the library
+	 */
+	public static String[] availableCompressionAlgorithms()
+	{
+		return AVAILABLE_COMP_ALGS;
+	}
+	
+	/*
+	 * Finds the instance of the class that has established the session. It is passed
+	 * to the client as the connection's context, which is not consulted by
+	 * Session.resolveAttribute(), so it must be queried explicitly.
+	 * 
+	 * @param session - the library's session
+	 * 
+	 * @return the session's owner or null if the session was not established by this class
+	 */
+	private static SshMina ownerOf(Session session)
+	{
+		if ( false == (session instanceof ClientSession) )
+		{
+			return null;
+		}
+		
+		AttributeRepository context = ((ClientSession) session).getConnectionContext();
+		return ( null==context ? null : context.getAttribute(OWNER) );
+	}
+	
+	/*
+	 * Holder of the client, shared by all sessions. It is only
+	 * instantiated (and its I/O threads started) when the first session
+	 * is established.
+	 * 
+	 * The client's listener and host key verifier find the session's 
+	 * settings (the instance of SshMina) in the connection's context.
+	 * 
+	 * Only the application's credentials are used for authentication, hence
+	 * the library's defaults that consult the user's environment (~/.ssh/config,
+	 * default keys in ~/.ssh and the SSH agent) are disabled.
+	 */
+	private static final class SharedClient
+	{
+		static final SshClient CLIENT = createClient();
+		
+		private static SshClient createClient()
+		{
+			SshClient retVal = SshClient.setUpDefaultClient();
+			
+			if ( ioThreads > 0 )
+			{
+				CoreModuleProperties.NIO_WORKERS.set(retVal, Integer.valueOf(ioThreads));
+			}
+			
+			retVal.addSessionListener(new SessionListener()
+					{
+						public void sessionCreated(Session session)
+						{
+							// called before the key exchange starts
+							SshMina owner = ownerOf(session);
+							if ( null != owner )
+							{
+								owner.applyAlgorithms(session);
+							}
+						}
+					});
+			
+			retVal.setServerKeyVerifier(new StrictHostkeyVerifier());
+			retVal.setHostConfigEntryResolver(HostConfigEntryResolver.EMPTY);
+			retVal.setKeyIdentityProvider(KeyIdentityProvider.EMPTY_KEYS_PROVIDER);
+			retVal.setAgentFactory(null);
+			retVal.start();
+			
+			return retVal;
+		}
+	}
+	
+	/*
+	 * An internal class (not to be used outside of the main class) that
+	 * implements the library's ServerKeyVerifier with strict host key checking,
+	 * using host keys of the session's owner.
+	 * 
+	 * @author Jernej Kovacic
+	 */
+	private static final class StrictHostkeyVerifier implements ServerKeyVerifier
+	{
+		public boolean verifyServerKey(ClientSession session, SocketAddress remoteAddress, PublicKey serverKey)
+		{
+			SshMina owner = ownerOf(session);
+			
+			// sessions not established by this class are never trusted
+			if ( null == owner )
+			{
+				return false;
+			}
+			
+			// the library passes the key as a Java object, HostkeyVerifier expects a SSH formatted blob
+			ByteArrayBuffer buf = new ByteArrayBuffer();
+			buf.putRawPublicKey(serverKey);
+			
+			return new HostkeyVerifier(owner.destination.hostkeys).strictVerify(KeyUtils.getKeyType(serverKey), buf.getCompactData());
+		}
+	}
+}
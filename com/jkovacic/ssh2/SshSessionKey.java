@@ -0,0 +1,193 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.ssh2;
+
+import java.security.*;
+import java.util.*;
+
+import com.jkovacic.cryptoutil.*;
+
+/**
+ * A key that identifies interchangeable SSH sessions in SshSessionPool:
+ * sessions to the same host and port, established by the same SSH 
+ * implementation, for the same user and with the same encryption algorithms.
+ * 
+ * Additionally, sessions must be authenticated by the same method and secret 
+ * (password or private key) and the host must have been verified against the 
+ * same pinned host keys. Otherwise a borrower with a wrong secret or different
+ * host keys would obtain a session, authenticated and verified for somebody else.
+ * The secret itself is not stored, only its salted digest.
+ * 
+ * All values are copied at instantiation, so later modifications of
+ * HostId, UserCredentials or EncryptionAlgorithms do not affect the key.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see SshSessionPool
+ */
+final class SshSessionKey 
+{
+	private Ssh2.SshImpl which;
+	private String hostname;
+	private int port;
+	private String username;
+	private List<KexAlgs> kexAlgs;
+	private List<Ciphers> cipherAlgs;
+	private List<Hmacs> hmacAlgs;
+	private List<CompAlgs> compAlgs;
+	// digest of the authentication method and secret
+	private String credentials;
+	// pinned host keys (algorithm, type and key), the order is irrelevant
+	private Set<String> hostkeys;
+	
+	// salt of credentials' digests, random for each JVM
+	private static final byte[] SALT = createSalt();
+	
+	private static byte[] createSalt()
+	{
+		byte[] retVal = new byte[16];
+		new SecureRandom().nextBytes(retVal);
+		return retVal;
+	}
+	
+	// hash code is calculated only once
+	private int hash;
+	
+	/*
+	 * Constructor
+	 * 
+	 * @param which - implementation of SSH2 functionality
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algs - selected encryption algorithms
+	 * 
+	 * @throws SshException if the credentials' digest cannot be calculated
+	 */
+	SshSessionKey(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws SshException
+	{
+		this.which = which;
+		this.hostname = host.hostname;
+		this.port = host.port;
+		this.username = user.getUsername();
+		this.kexAlgs = new ArrayList<KexAlgs>(algs.getKexAlgorithms());
+		this.cipherAlgs = new ArrayList<Ciphers>(algs.getCipherAlgorithms());
+		this.hmacAlgs = new ArrayList<Hmacs>(algs.getHmacAlgorithms());
+		this.compAlgs = new ArrayList<CompAlgs>(algs.getCompressionAlgorithms());
+		this.credentials = credentialsDigest(user);
+		this.hostkeys = new HashSet<String>();
+		
+		if ( null != host.hostkeys )
+		{
+			for ( Hostkey hk : host.hostkeys )
+			{
+				if ( null != hk && null != hk.getHostPublicKey() )
+				{
+					hostkeys.add(hk.getMethod() + "/" + hk.getType() + "/" + new String(ByteHex.toHex(hk.getHostPublicKey())));
+				}
+			}
+		}
+		
+		this.hash = Arrays.hashCode(new Object[] { 
+				which, hostname, port, username, kexAlgs, cipherAlgs, hmacAlgs, compAlgs, credentials, hostkeys });
+	}
+	
+	/*
+	 * Calculates a salted digest of the authentication method and secret
+	 * 
+	 * @param user - user's data needed for authentication
+	 * 
+	 * @return hex representation of the digest
+	 * 
+	 * @throws SshException if the digest algorithm is not available
+	 */
+	private static String credentialsDigest(UserCredentials user) throws SshException
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance(DigestAlgorithm.SHA256.getName());
+			
+			md.update(SALT);
+			md.update(user.getClass().getName().getBytes());
+			
+			if ( user instanceof UserCredentialsPrivateKey )
+			{
+				md.update(String.valueOf(((UserCredentialsPrivateKey) user).getMethod()).getBytes());
+			}
+			
+			// separates the method from the secret
+			md.update((byte) 0);
+			
+			if ( null != user.getSecret() )
+			{
+				md.update(user.getSecret());
+			}
+			
+			return new String(ByteHex.toHex(md.digest()));
+		}
+		catch ( NoSuchAlgorithmException ex )
+		{
+			throw new SshException("Digest algorithm " + DigestAlgorithm.SHA256.getName() + " not available");
+		}
+	}
+	
+	/*
+	 * @return host name and port, suitable for logging
+	 */
+	public String toString()
+	{
+		return username + "@" + hostname + ":" + port;
+	}
+	
+	public int hashCode()
+	{
+		return hash;
+	}
+	
+	public boolean equals(Object obj)
+	{
+		if ( this == obj )
+		{
+			return true;
+		}
+		
+		if ( false == (obj instanceof SshSessionKey) )
+		{
+			return false;
+		}
+		
+		SshSessionKey other = (SshSessionKey) obj;
+		
+		return ( which == other.which &&
+				 port == other.port &&
+				 equal(hostname, other.hostname) &&
+				 equal(username, other.username) &&
+				 kexAlgs.equals(other.kexAlgs) &&
+				 cipherAlgs.equals(other.cipherAlgs) &&
+				 hmacAlgs.equals(other.hmacAlgs) &&
+				 compAlgs.equals(other.compAlgs) &&
+				 credentials.equals(other.credentials) &&
+				 hostkeys.equals(other.hostkeys) );
+	}
+	
+	/*
+	 * Null safe comparison of strings
+	 */
+	private static boolean equal(String a, String b)
+	{
+		return ( null==a ? null==b : a.equals(b) );
+	}
+}
@@ -0,0 +1,590 @@
+/*
+Copyright 2012, Jernej Kovacic
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.jkovacic.ssh2;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of established (connected and authenticated) SSH sessions.
+ * 
+ * Establishing of a SSH session requires a TCP connection, a key exchange
+ * and user authentication, all of them expensive. When many short commands
+ * are executed on the same host, it makes sense to establish a session once
+ * and reuse it. Sessions are pooled by the SSH implementation, host name and
+ * port, username, authentication method and secret, pinned host keys and 
+ * encryption algorithms, so a session is only reused by borrowers that
+ * would have been able to establish it themselves. 
+ * 
+ * A session is obtained by borrow() and must be returned by release()
+ * (or invalidate() if it should not be reused anymore). An idle session is
+ * checked by isConnected() before it is handed out. Sessions, idle for 
+ * longer than the idle timeout, are disconnected by a background thread.
+ * The number of sessions (borrowed and idle) per host and user is limited;
+ * when the limit is reached, borrow() waits until a session is returned.
+ * 
+ * The class is thread safe.
+ * 
+ * @author Jernej Kovacic
+ * 
+ * @see Ssh2
+ */
+public class SshSessionPool 
+{
+	/** Default maximum number of sessions per host and user */
+	public static final int DEFAULT_MAX_PER_HOST = 4;
+	
+	/** Default idle timeout in milliseconds */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+	
+	// maximum number of sessions (borrowed and idle) per key
+	private int maxPerHost;
+	
+	// how long (in milliseconds) a session may remain idle
+	private long idleTimeout;
+	
+	// pooled sessions, grouped by keys
+	private Map<SshSessionKey, HostSessions> hosts = new HashMap<SshSessionKey, HostSessions>();
+	
+	// keys of borrowed sessions, needed when a session is returned
+	private Map<Ssh2, SshSessionKey> borrowed = new IdentityHashMap<Ssh2, SshSessionKey>();
+	
+	// background eviction of idle sessions
+	private ScheduledExecutorService evictor = null;
+	
+	// has the pool been closed?
+	private boolean closed = false;
+	
+	// metrics
+	private AtomicLong created = new AtomicLong(0);
+	private AtomicLong reused = new AtomicLong(0);
+	private AtomicLong evicted = new AtomicLong(0);
+	private AtomicLong validationFailures = new AtomicLong(0);
+	private AtomicLong connectFailures = new AtomicLong(0);
+	private AtomicLong waits = new AtomicLong(0);
+	
+	/**
+	 * Constructor with default limits
+	 */
+	public SshSessionPool()
+	{
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxPerHost - maximum number of sessions (borrowed and idle) per host and user, at least 1
+	 * @param idleTimeout - how long (in milliseconds) a session may remain idle, non positive values disable eviction
+	 */
+	public SshSessionPool(int maxPerHost, long idleTimeout)
+	{
+		this.maxPerHost = ( maxPerHost<1 ? 1 : maxPerHost );
+		this.idleTimeout = idleTimeout;
+		
+		if ( idleTimeout > 0 )
+		{
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+					{
+						public Thread newThread(Runnable r)
+						{
+							Thread th = new Thread(r, "ssh-pool-evictor");
+							th.setDaemon(true);
+							return th;
+						}
+					});
+			
+			// check for idle sessions a few times per timeout period
+			long period = Math.max(idleTimeout/2, 100L);
+			evictor.scheduleWithFixedDelay(new Runnable()
+					{
+						public void run()
+						{
+							evictIdle();
+						}
+					}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Borrows a connected session, waiting indefinitely when the limit of sessions is reached.
+	 * 
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algs - selected encryption algorithms
+	 * 
+	 * @return a connected session
+	 * 
+	 * @throws SshException if a session could not be established or the pool is closed
+	 */
+	public Ssh2 borrow(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws SshException
+	{
+		return borrow(which, host, user, algs, 0);
+	}
+	
+	/**
+	 * Borrows a connected session. An idle session is reused if available, 
+	 * otherwise a new one is established unless the limit of sessions is reached.
+	 * In this case, the method waits until another session is returned.
+	 * 
+	 * @param which - an Enum indicating the actual implementation of SSH2 functionality
+	 * @param host - a class with SSH server data
+	 * @param user - user's data needed for authentication
+	 * @param algs - selected encryption algorithms
+	 * @param timeout - maximum time to wait (in milliseconds) when the limit is reached, 0 means forever
+	 * 
+	 * @return a connected session
+	 * 
+	 * @throws SshException if a session could not be established in time or the pool is closed
+	 */
+	public Ssh2 borrow(Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs, long timeout) throws SshException
+	{
+		if ( null==which || null==host || null==user || null==algs )
+		{
+			throw new SshException("Not all SSH parameters provided");
+		}
+		
+		SshSessionKey key = new SshSessionKey(which, host, user, algs);
+		long deadline = ( timeout>0 ? System.currentTimeMillis()+timeout : 0 );
+		
+		while ( true )
+		{
+			Ssh2 candidate = null;
+			
+			synchronized(this)
+			{
+				HostSessions hs = reserve(key, deadline);
+				IdleSession idle = hs.idle.pollFirst();
+				
+				if ( null != idle )
+				{
+					candidate = idle.session;
+				}
+			}
+			
+			if ( null == candidate )
+			{
+				// a slot was reserved, establish a new session
+				return establish(key, which, host, user, algs);
+			}
+			
+			// validation on borrow
+			if ( true == candidate.isConnected() )
+			{
+				synchronized(this)
+				{
+					borrowed.put(candidate, key);
+				}
+				
+				reused.incrementAndGet();
+				return candidate;
+			}
+			
+			// the session is dead, discard it and try again
+			validationFailures.incrementAndGet();
+			discard(key, candidate);
+		}
+	}
+	
+	/**
+	 * Returns a borrowed session into the pool. If it is not connected 
+	 * anymore or the pool is closed, it is disconnected and discarded.
+	 * 
+	 * @param session - a session, obtained by borrow()
+	 * 
+	 * @throws SshException if the session was not borrowed from this pool
+	 */
+	public void release(Ssh2 session) throws SshException
+	{
+		SshSessionKey key = null;
+		boolean keep = false;
+		
+		synchronized(this)
+		{
+			key = borrowed.remove(session);
+			if ( null == key )
+			{
+				throw new SshException("Session not borrowed from this pool");
+			}
+			
+			if ( false==closed && true==session.isConnected() )
+			{
+				HostSessions hs = hosts.get(key);
+				hs.active--;
+				hs.idle.addFirst(new IdleSession(session));
+				keep = true;
+				notifyAll();
+			}
+		}
+		
+		if ( false == keep )
+		{
+			discard(key, session);
+		}
+	}
+	
+	/**
+	 * Disconnects a borrowed session and removes it from the pool.
+	 * Should be called when a session is known to be unusable.
+	 * 
+	 * @param session - a session, obtained by borrow()
+	 * 
+	 * @throws SshException if the session was not borrowed from this pool
+	 */
+	public void invalidate(Ssh2 session) throws SshException
+	{
+		SshSessionKey key = null;
+		
+		synchronized(this)
+		{
+			key = borrowed.remove(session);
+			if ( null == key )
+			{
+				throw new SshException("Session not borrowed from this pool");
+			}
+		}
+		
+		discard(key, session);
+	}
+	
+	/**
+	 * Disconnects all sessions that have been idle for longer than the idle timeout.
+	 * Typically called periodically by a background thread.
+	 * 
+	 * @return number of disconnected sessions
+	 */
+	public int evictIdle()
+	{
+		if ( idleTimeout <= 0 )
+		{
+			return 0;
+		}
+		
+		List<Ssh2> victims = new ArrayList<Ssh2>();
+		long limit = System.currentTimeMillis() - idleTimeout;
+		
+		synchronized(this)
+		{
+			Iterator<HostSessions> it = hosts.values().iterator();
+			while ( it.hasNext() )
+			{
+				HostSessions hs = it.next();
+				
+				// the least recently used sessions are at the end of the deque
+				while ( false==hs.idle.isEmpty() && hs.idle.peekLast().since<limit )
+				{
+					victims.add(hs.idle.pollLast().session);
+				}
+				
+				if ( 0==hs.active && true==hs.idle.isEmpty() )
+				{
+					it.remove();
+				}
+			}
+			
+			if ( victims.size() > 0 )
+			{
+				notifyAll();
+			}
+		}
+		
+		// disconnection may take a while, so it is performed outside of the synchronized block
+		for ( Ssh2 s : victims )
+		{
+			disconnectQuietly(s);
+		}
+		
+		evicted.addAndGet(victims.size());
+		return victims.size();
+	}
+	
+	/**
+	 * Closes the pool. All idle sessions are disconnected immediately,
+	 * borrowed sessions are disconnected when returned.
+	 */
+	public void close()
+	{
+		List<Ssh2> victims = new ArrayList<Ssh2>();
+		
+		synchronized(this)
+		{
+			closed = true;
+			
+			for ( HostSessions hs : hosts.values() )
+			{
+				for ( IdleSession idle : hs.idle )
+				{
+					victims.add(idle.session);
+				}
+				
+				hs.idle.clear();
+			}
+			
+			notifyAll();
+		}
+		
+		if ( null != evictor )
+		{
+			evictor.shutdownNow();
+		}
+		
+		for ( Ssh2 s : victims )
+		{
+			disconnectQuietly(s);
+		}
+	}
+	
+	/**
+	 * @return number of sessions that have been established by the pool
+	 */
+	public long getCreatedCount()
+	{
+		return created.get();
+	}
+	
+	/**
+	 * @return number of times an idle session was reused (i.e. a handshake was saved)
+	 */
+	public long getReusedCount()
+	{
+		return reused.get();
+	}
+	
+	/**
+	 * @return number of sessions, disconnected due to idle timeout
+	 */
+	public long getEvictedCount()
+	{
+		return evicted.get();
+	}
+	
+	/**
+	 * @return number of idle sessions, found disconnected at borrowing
+	 */
+	public long getValidationFailureCount()
+	{
+		return validationFailures.get();
+	}
+	
+	/**
+	 * @return number of failed attempts to establish a session
+	 */
+	public long getConnectFailureCount()
+	{
+		return connectFailures.get();
+	}
+	
+	/**
+	 * @return number of times borrow() had to wait because the limit was reached
+	 */
+	public long getWaitCount()
+	{
+		return waits.get();
+	}
+	
+	/**
+	 * @return number of currently borrowed sessions (including those being established)
+	 */
+	public synchronized int getActiveCount()
+	{
+		int retVal = 0;
+		
+		for ( HostSessions hs : hosts.values() )
+		{
+			retVal += hs.active;
+		}
+		
+		return retVal;
+	}
+	
+	/**
+	 * @return number of currently idle sessions
+	 */
+	public synchronized int getIdleCount()
+	{
+		int retVal = 0;
+		
+		for ( HostSessions hs : hosts.values() )
+		{
+			retVal += hs.idle.size();
+		}
+		
+		return retVal;
+	}
+	
+	/*
+	 * Reserves a slot for the key: either an idle session is available
+	 * (it is not removed by this method) or the limit has not been reached yet.
+	 * Waits if necessary. Must be called from a synchronized block.
+	 * 
+	 * @return sessions of the key, its 'active' counter already incremented
+	 */
+	private HostSessions reserve(SshSessionKey key, long deadline) throws SshException
+	{
+		boolean waited = false;
+		
+		while ( true )
+		{
+			if ( true == closed )
+			{
+				throw new SshException("Session pool is closed");
+			}
+			
+			HostSessions hs = hosts.get(key);
+			if ( null == hs )
+			{
+				hs = new HostSessions();
+				hosts.put(key, hs);
+			}
+			
+			if ( false==hs.idle.isEmpty() || hs.active+hs.idle.size()<maxPerHost )
+			{
+				hs.active++;
+				return hs;
+			}
+			
+			// the limit is reached, wait until a session is returned
+			long toWait = 0;
+			if ( deadline > 0 )
+			{
+				toWait = deadline - System.currentTimeMillis();
+				if ( toWait <= 0 )
+				{
+					throw new SshException("Timeout while waiting for a session to " + key);
+				}
+			}
+			
+			if ( false == waited )
+			{
+				waits.incrementAndGet();
+				waited = true;
+			}
+			
+			try
+			{
+				wait(toWait);
+			}
+			catch ( InterruptedException ex )
+			{
+				Thread.currentThread().interrupt();
+				throw new SshException("Interrupted while waiting for a session to " + key);
+			}
+		}
+	}
+	
+	/*
+	 * Establishes a new session in a reserved slot
+	 */
+	private Ssh2 establish(SshSessionKey key, Ssh2.SshImpl which, HostId host, UserCredentials user, EncryptionAlgorithms algs) throws SshException
+	{
+		Ssh2 session = null;
+		
+		try
+		{
+			session = SshFactory.getInstance(which, host, user, algs);
+			session.connect();
+		}
+		catch ( SshException ex )
+		{
+			connectFailures.incrementAndGet();
+			
+			synchronized(this)
+			{
+				hosts.get(key).active--;
+				notifyAll();
+			}
+			
+			if ( null != session )
+			{
+				disconnectQuietly(session);
+			}
+			
+			throw ex;
+		}
+		
+		created.incrementAndGet();
+		
+		synchronized(this)
+		{
+			borrowed.put(session, key);
+		}
+		
+		return session;
+	}
+	
+	/*
+	 * Frees the slot, occupied by a session, and disconnects the session
+	 */
+	private void discard(SshSessionKey key, Ssh2 session)
+	{
+		synchronized(this)
+		{
+			HostSessions hs = hosts.get(key);
+			if ( null != hs )
+			{
+				hs.active--;
+			}
+			notifyAll();
+		}
+		
+		disconnectQuietly(session);
+	}
+	
+	/*
+	 * Disconnects a session, ignoring any failures
+	 */
+	private static void disconnectQuietly(Ssh2 session)
+	{
+		try
+		{
+			session.disconnect();
+		}
+		catch ( Exception ex )
+		{
+			// not much to do, the session is not used anymore
+		}
+	}
+	
+	/*
+	 * Sessions of a single key
+	 */
+	private static final class HostSessions
+	{
+		// number of borrowed sessions (including those being established)
+		int active = 0;
+		
+		// idle sessions, the most recently used first
+		Deque<IdleSession> idle = new ArrayDeque<IdleSession>();
+	}
+	
+	/*
+	 * An idle session and the time when it became idle
+	 */
+	private static final class IdleSession
+	{
+		Ssh2 session;
+		long since;
+		
+		IdleSession(Ssh2 session)
+		{
+			this.session = session;
+			this.since = System.currentTimeMillis();
+		}
+	}
+}